@@ -1,5 +1,9 @@
 package enigma;
 
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
  *  to and from indices into the alphabet.
  *  @author Matthew Jihoon Lee
@@ -10,9 +14,42 @@ class Alphabet {
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
         _chars = chars;
-        characterList = new char[chars.length()];
-        for (int i = 0; i < chars.length(); i++) {
-            characterList[i] = _chars.charAt(i);
+        characterList = chars.toCharArray();
+        char lo = Character.MAX_VALUE, hi = Character.MIN_VALUE;
+        for (char ch : characterList) {
+            lo = (char) Math.min(lo, ch);
+            hi = (char) Math.max(hi, ch);
+        }
+        if (characterList.length > 0 && hi - lo < DENSE_LIMIT) {
+            _base = lo;
+            _dense = new int[hi - lo + 1];
+            Arrays.fill(_dense, -1);
+            _pages = null;
+        } else {
+            _base = 0;
+            _dense = null;
+            _pages = new int[PAGES][];
+        }
+        for (int i = 0; i < characterList.length; i += 1) {
+            char ch = characterList[i];
+            int[] page;
+            int slot;
+            if (_dense != null) {
+                page = _dense;
+                slot = ch - _base;
+            } else {
+                page = _pages[ch >>> PAGE_BITS];
+                if (page == null) {
+                    page = new int[PAGE_SIZE];
+                    Arrays.fill(page, -1);
+                    _pages[ch >>> PAGE_BITS] = page;
+                }
+                slot = ch & (PAGE_SIZE - 1);
+            }
+            if (page[slot] >= 0) {
+                throw error("duplicate character '%c' in alphabet", ch);
+            }
+            page[slot] = i;
         }
     }
 
@@ -23,12 +60,12 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _chars.length();
+        return characterList.length;
     }
 
     /** Returns true if preprocess(CH) is in this alphabet. */
     boolean contains(char ch) {
-        return _chars.contains(String.valueOf(ch));
+        return indexOf(ch) >= 0;
     }
 
     /** Returns character number INDEX in the alphabet, where
@@ -44,20 +81,36 @@ class Alphabet {
     /** Returns the index of character preprocess(CH), which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        boolean checkifin = false;
-        int index = 0;
-        for (int i = 0; i < characterList.length; i++) {
-            if (characterList[i] == ch) {
-                checkifin = true;
-                index = i;
-            }
-        }
-        if (!checkifin) {
-            throw EnigmaException.error("can't do that!");
+        int index = indexOf(ch);
+        if (index < 0) {
+            throw error("character '%c' is not in the alphabet", ch);
         }
         return index;
     }
 
+    /** Returns the index of CH, or -1 if CH is not in the alphabet.  Unlike
+     *  toInt(), never throws, so it may be used to classify characters. */
+    int indexOf(char ch) {
+        if (_dense != null) {
+            int slot = ch - _base;
+            return slot >= 0 && slot < _dense.length ? _dense[slot] : -1;
+        }
+        int[] page = _pages[ch >>> PAGE_BITS];
+        return page == null ? -1 : page[ch & (PAGE_SIZE - 1)];
+    }
+
+    /** Alphabets whose characters span fewer than this many code points
+     *  get a single dense index table. */
+    private static final int DENSE_LIMIT = 1024;
+
+    /** Log2 of the number of characters covered by one index page. */
+    private static final int PAGE_BITS = 8;
+
+    /** Number of characters covered by one index page. */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /** Number of pages needed to cover all of char. */
+    private static final int PAGES = (Character.MAX_VALUE + 1) >>> PAGE_BITS;
 
     /** A STRING of all the characters in an alphabet. */
     private String _chars;
@@ -65,4 +118,16 @@ class Alphabet {
     /** A characterList containing all the characters in an alphabet. */
     private char[] characterList;
 
+    /** The smallest character of a dense alphabet. */
+    private final char _base;
+
+    /** Index of character _base + K at K, or -1, when the alphabet spans a
+     *  narrow range of characters; otherwise null. */
+    private final int[] _dense;
+
+    /** Index of character C at _pages[C >>> PAGE_BITS][C & 0xff], or -1,
+     *  for alphabets spread across the character range; otherwise null.
+     *  Pages holding no characters of the alphabet are null. */
+    private final int[][] _pages;
+
 }
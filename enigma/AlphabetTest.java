@@ -0,0 +1,55 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Alphabet class.
+ *  @author Matthew Jihoon Lee
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testDenseLookup() {
+        for (int i = 0; i < UPPER_STRING.length(); i += 1) {
+            assertEquals(i, UPPER.toInt(UPPER_STRING.charAt(i)));
+            assertTrue(UPPER.contains(UPPER_STRING.charAt(i)));
+        }
+        assertFalse(UPPER.contains('a'));
+        assertFalse(UPPER.contains(' '));
+        assertFalse(UPPER.contains('@'));
+        assertFalse(UPPER.contains('['));
+    }
+
+    @Test
+    public void testSparseLookup() {
+        Alphabet alph = new Alphabet("A\u00e9\u4e2d\uffff");
+        assertEquals(0, alph.toInt('A'));
+        assertEquals(1, alph.toInt('\u00e9'));
+        assertEquals(2, alph.toInt('\u4e2d'));
+        assertEquals(3, alph.toInt('\uffff'));
+        assertFalse(alph.contains('B'));
+        assertFalse(alph.contains('\u4e2e'));
+        assertEquals('\u4e2d', alph.toChar(2));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testMissingCharacter() {
+        UPPER.toInt('a');
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDuplicateCharacter() {
+        new Alphabet("ABCA");
+    }
+
+}
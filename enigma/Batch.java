@@ -0,0 +1,256 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static enigma.EnigmaException.*;
+
+/** Converts many message files with one configured machine, several at a
+ *  time.  Each file is converted by a fork of the machine into an output
+ *  file beside it, whose name is the input's with OUTPUT_SUFFIX added.
+ *  An error of any kind in one file ends the conversion of that file
+ *  only, and is reported in its Result, leaving in its output whatever
+ *  was converted before the error, as Main does.  At most a fixed
+ *  number of files are open at once, and each is streamed, so memory use
+ *  does not depend on the number or size of the files.
+ *  @author Matthew Jihoon Lee
+ */
+class Batch {
+
+    /** Converts the messages in one file to another. */
+    interface Converter {
+        /** Convert the messages in file INPUT with MACHINE, writing the
+         *  results to file OUTPUT. */
+        void convert(Machine machine, Path input, Path output)
+            throws IOException;
+    }
+
+    /** The outcome of converting one file. */
+    static final class Result {
+
+        /** The outcome of converting INPUT to OUTPUT in NANOS
+         *  nanoseconds, with error message ERROR, or null if there was no
+         *  error. */
+        Result(Path input, Path output, long nanos, String error) {
+            _input = input;
+            _output = output;
+            _nanos = nanos;
+            _error = error;
+        }
+
+        /** Return the input file. */
+        Path input() {
+            return _input;
+        }
+
+        /** Return the output file. */
+        Path output() {
+            return _output;
+        }
+
+        /** Return the time taken, in nanoseconds. */
+        long nanos() {
+            return _nanos;
+        }
+
+        /** Return the error message, or null if there was none. */
+        String error() {
+            return _error;
+        }
+
+        @Override
+        public String toString() {
+            if (_error == null) {
+                return String.format("OK    %10.1f ms  %s -> %s",
+                                     _nanos / NANOS_PER_MILLI, _input,
+                                     _output);
+            }
+            return String.format("ERROR %10.1f ms  %s: %s",
+                                 _nanos / NANOS_PER_MILLI, _input, _error);
+        }
+
+        /** Input file. */
+        private final Path _input;
+
+        /** Output file. */
+        private final Path _output;
+
+        /** Time taken, in nanoseconds. */
+        private final long _nanos;
+
+        /** Error message, or null. */
+        private final String _error;
+    }
+
+    /** A Batch converting files with forks of MACHINE, which must not be
+     *  changed afterwards, using CONVERTER, THREADS files at a time. */
+    Batch(Machine machine, Converter converter, int threads) {
+        _machine = machine;
+        _converter = converter;
+        _threads = threads;
+    }
+
+    /** Convert each of INPUTS, returning the outcomes in the same
+     *  order. */
+    List<Result> run(List<Path> inputs) {
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(_threads,
+            task -> {
+                Thread thread = new Thread(task, "enigma-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        try {
+            ArrayList<Future<Result>> pending = new ArrayList<>();
+            for (Path input : inputs) {
+                pending.add(workers.submit(() -> convert(input)));
+            }
+            ArrayList<Result> results = new ArrayList<>();
+            for (Future<Result> result : pending) {
+                results.add(result.get());
+            }
+            _elapsed = System.nanoTime() - start;
+            return results;
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /** Return the elapsed time of the last run, in nanoseconds. */
+    long elapsed() {
+        return _elapsed;
+    }
+
+    /** Return the outcome of converting INPUT. */
+    private Result convert(Path input) {
+        Path output = outputFor(input);
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            _converter.convert(_machine.fork(), input, output);
+        } catch (EnigmaException excp) {
+            error = excp.getMessage();
+        } catch (IOException excp) {
+            error = String.format("I/O error: %s", excp.getMessage());
+        } catch (UncheckedIOException excp) {
+            error = String.format("I/O error: %s",
+                                  excp.getCause().getMessage());
+        } catch (RuntimeException excp) {
+            error = String.format("unexpected error: %s", excp);
+        }
+        return new Result(input, output, System.nanoTime() - start, error);
+    }
+
+    /** Print RESULTS, one per line, followed by a line of totals
+     *  including the elapsed time of their run, NANOS nanoseconds, on
+     *  OUT. */
+    static void report(List<Result> results, long nanos, PrintStream out) {
+        int failed = 0;
+        for (Result result : results) {
+            out.println(result);
+            if (result.error() != null) {
+                failed += 1;
+            }
+        }
+        out.printf("%d files, %d failed, %.1f ms elapsed%n", results.size(),
+                   failed, nanos / NANOS_PER_MILLI);
+        out.flush();
+    }
+
+    /** Return the output file for INPUT. */
+    static Path outputFor(Path input) {
+        return input.resolveSibling(input.getFileName() + OUTPUT_SUFFIX);
+    }
+
+    /** Return the message files named by SOURCE, excluding EXCLUDED
+     *  (which may be null).  If SOURCE is a directory, these are the
+     *  regular files in it, in order of name, except those whose names
+     *  begin with '.' or end with OUTPUT_SUFFIX.  Otherwise, SOURCE is a
+     *  manifest with one file name on each line, relative to the
+     *  manifest's directory; blank lines and lines starting with '#' are
+     *  ignored, as are later names of a file already listed, so that no
+     *  two conversions write the same output. */
+    static List<Path> inputs(Path source, Path excluded) throws IOException {
+        if (!Files.isDirectory(source)) {
+            Path dir = source.toAbsolutePath().getParent();
+            ArrayList<Path> result = new ArrayList<>();
+            HashSet<Path> listed = new HashSet<>();
+            for (String line : Files.readAllLines(source)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    Path input = dir.resolve(line);
+                    if (listed.add(realPath(input))) {
+                        result.add(input);
+                    }
+                }
+            }
+            return result;
+        }
+        try (Stream<Path> files = Files.list(source)) {
+            List<Path> result = files
+                .filter(Files::isRegularFile)
+                .filter(p -> !p.getFileName().toString().startsWith("."))
+                .filter(p -> !p.toString().endsWith(OUTPUT_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+            if (excluded != null) {
+                for (int i = result.size() - 1; i >= 0; i -= 1) {
+                    if (Files.isSameFile(result.get(i), excluded)) {
+                        result.remove(i);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /** Return the real path of FILE, or its normalized absolute path if
+     *  it does not exist. */
+    private static Path realPath(Path file) throws IOException {
+        try {
+            return file.toRealPath();
+        } catch (NoSuchFileException excp) {
+            return file.toAbsolutePath().normalize();
+        }
+    }
+
+    /** Suffix added to the name of an input file to name its output. */
+    static final String OUTPUT_SUFFIX = ".out";
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Machine forked for each file. */
+    private final Machine _machine;
+
+    /** Converts each file. */
+    private final Converter _converter;
+
+    /** Number of files converted at once. */
+    private final int _threads;
+
+    /** Elapsed time of the last run, in nanoseconds. */
+    private long _elapsed;
+
+}
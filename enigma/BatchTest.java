@@ -0,0 +1,130 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Batch class.
+ *  @author Matthew Jihoon Lee
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Convert the messages in file INPUT with MACHINE, writing the
+     *  results to file OUTPUT. */
+    private static void convert(Machine machine, Path input, Path output)
+        throws IOException {
+        try (Reader in = Files.newBufferedReader(input);
+             Writer out = Files.newBufferedWriter(output)) {
+            GroupWriter groups = new GroupWriter(out);
+            try {
+                new Transcriber(machine, s -> Main.setUp(machine, s), groups)
+                    .transcribe(in);
+            } finally {
+                groups.flush();
+            }
+        }
+    }
+
+    /** Create the file NAME in DIR containing TEXT. */
+    private static Path write(Path dir, String name, String text)
+        throws IOException {
+        return Files.write(dir.resolve(name), text.getBytes());
+    }
+
+    /** The line separator used in output. */
+    private static final String NL = System.lineSeparator();
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testDirectory() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        write(dir, "a.in", "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+              + "FROM HIS SHOULDER HIAWATHA\n");
+        write(dir, "b.in", "* B Beta III IV I AXLE\nHELLO\n"
+              + "* B Beta III III I AXLE\nWORLD\n");
+        write(dir, "c.in", "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+              + "QVPQS OKOIL PUBKJ ZPISF XDW\n");
+        write(dir, "c.in.out", "stale output");
+        write(dir, ".hidden", "not a message");
+        Path config = write(dir, "default.conf", "not a message");
+
+        List<Path> inputs = Batch.inputs(dir, config);
+        assertEquals(Arrays.asList(dir.resolve("a.in"), dir.resolve("b.in"),
+                                   dir.resolve("c.in")), inputs);
+        List<Batch.Result> results =
+            new Batch(navalMachine(), BatchTest::convert, 2).run(inputs);
+        assertEquals(3, results.size());
+        assertNull(results.get(0).error());
+        assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW" + NL,
+                     new String(Files.readAllBytes(results.get(0).output())));
+        assertEquals("Rotor cannot be used again!", results.get(1).error());
+        assertEquals(dir.resolve("b.in.out"), results.get(1).output());
+        assertEquals(5 + NL.length(), Files.size(results.get(1).output()));
+        assertNull(results.get(2).error());
+        assertEquals("FROMH ISSHO ULDER HIAWA THA" + NL,
+                     new String(Files.readAllBytes(results.get(2).output())));
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        write(dir, "one", "* B Beta III IV I AXLE\nHELLO\n");
+        write(dir, "two", "HELLO\n");
+        Path manifest =
+            write(dir, "files",
+                  "# Files\none\n\n  two  \nthree\n./one\nthree\n");
+        List<Path> inputs = Batch.inputs(manifest, null);
+        assertEquals(3, inputs.size());
+        List<Batch.Result> results =
+            new Batch(navalMachine(), BatchTest::convert, 3).run(inputs);
+        assertNull(results.get(0).error());
+        assertEquals("setting is incorrect", results.get(1).error());
+        assertNotNull(results.get(2).error());
+        assertTrue(Files.exists(dir.resolve("one.out")));
+    }
+
+    @Test
+    public void testUnexpectedErrors() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        write(dir, "a", "* B Beta III IV I AXLE\nHELLO\n");
+        write(dir, "b", "unchecked");
+        write(dir, "c", "illegal");
+        write(dir, "d", "* B Beta III IV I AXLE\nHELLO\n");
+        List<Batch.Result> results =
+            new Batch(navalMachine(), (machine, input, output) -> {
+                String text = new String(Files.readAllBytes(input));
+                if (text.equals("unchecked")) {
+                    throw new UncheckedIOException(new IOException("gone"));
+                } else if (text.equals("illegal")) {
+                    throw new IllegalStateException("broken");
+                }
+                convert(machine, input, output);
+            }, 2).run(Batch.inputs(dir, null));
+        assertEquals(4, results.size());
+        assertNull(results.get(0).error());
+        assertEquals("I/O error: gone", results.get(1).error());
+        assertTrue(results.get(2).error().contains("broken"));
+        assertNull(results.get(3).error());
+        assertTrue(Files.exists(dir.resolve("d.out")));
+    }
+
+}
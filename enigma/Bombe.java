@@ -0,0 +1,781 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** A simulation of the Turing-Welchman bombe, which finds the keys under
+ *  which a crib, a known stretch of plaintext, could encrypt to part of
+ *  a ciphertext.
+ *
+ *  The crib and the ciphertext beneath it make a menu: a graph on the
+ *  letters with an edge from each crib letter to the ciphertext letter
+ *  beneath it, labelled with its keypress.  Each rotor order and
+ *  starting setting is a stop.  At a stop, each edge (A, B) at keypress
+ *  P says that if A is steckered to X, B is steckered to S(X), where S is
+ *  the rotors' permutation after P keypresses.  From the hypothesis that
+ *  the test letter, the busiest letter of the largest connected part of
+ *  the menu, is steckered to X, every such implication is followed, and
+ *  with it the diagonal board's: that if A is steckered to X, X is
+ *  steckered to A.  The letters implied for each letter are kept as a
+ *  bitset.  If they ever include the whole alphabet for the test letter,
+ *  every hypothesis is refuted at once, and the stop is passed.
+ *  Otherwise, each hypothesis is followed in turn, and one implying at
+ *  most one partner for every letter, and agreeing with the rest of the
+ *  crib, is a candidate key.
+ *
+ *  The stops of each rotor order are divided among the threads of a
+ *  ForkJoinPool by the setting of the leftmost rotor after the
+ *  reflector.  Rotor orders have the reflector first and the moving
+ *  rotors last, as in the Enigma; settings are as in a settings line,
+ *  for the start of the ciphertext.  Stepping follows Machine exactly;
+ *  the rotors of each stop are moved to the start of the crib with
+ *  Machine.advance, so the crib may lie anywhere in a ciphertext of any
+ *  length, and only the ciphertext beneath it is needed.
+ *  @author Matthew Jihoon Lee
+ */
+class Bombe {
+
+    /** A bombe for machines configured as MACHINE, searching for keys
+     *  that encrypt CRIB to CIPHER, the part of a ciphertext beneath it,
+     *  which starts OFFSET letters into the ciphertext.  Whitespace in
+     *  CIPHER and CRIB is ignored. */
+    Bombe(Machine machine, String cipher, String crib, long offset) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _size = _alphabet.size();
+        _slots = machine.numRotors();
+        if (_size > Long.SIZE) {
+            throw error("alphabet too large for the bombe");
+        }
+        _full = _size == Long.SIZE ? -1L : (1L << _size) - 1;
+        _from = letters(_alphabet, crib);
+        _to = letters(_alphabet, cipher);
+        _edges = _from.length;
+        if (_edges == 0 || _to.length != _edges) {
+            throw error("crib does not match the ciphertext beneath it");
+        } else if (offset < 0) {
+            throw error("crib does not fit the ciphertext at %d", offset);
+        }
+        _offset = offset;
+        for (int e = 0; e < _edges; e += 1) {
+            if (_from[e] == _to[e]) {
+                throw error("crib cannot be at %d: %c encrypts to itself",
+                            offset, _alphabet.toChar(_from[e]));
+            }
+        }
+        buildMenu();
+    }
+
+    /** Return the letters of TEXT as indices in ALPHABET, ignoring
+     *  whitespace. */
+    static int[] letters(Alphabet alphabet, String text) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char ch = text.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                if (!alphabet.contains(ch)) {
+                    throw error("character %c not in alphabet", ch);
+                }
+                result[n] = alphabet.toInt(ch);
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Choose the part of the menu to test, and the test letter. */
+    private void buildMenu() {
+        int[] part = new int[_size];
+        Arrays.fill(part, -1);
+        int[] degree = new int[_size];
+        int parts = 0;
+        for (int e = 0; e < _edges; e += 1) {
+            degree[_from[e]] += 1;
+            degree[_to[e]] += 1;
+        }
+        for (int c = 0; c < _size; c += 1) {
+            if (degree[c] > 0 && part[c] < 0) {
+                label(c, parts, part);
+                parts += 1;
+            }
+        }
+        int[] edges = new int[parts], letters = new int[parts];
+        for (int e = 0; e < _edges; e += 1) {
+            edges[part[_from[e]]] += 1;
+        }
+        for (int c = 0; c < _size; c += 1) {
+            if (part[c] >= 0) {
+                letters[part[c]] += 1;
+            }
+        }
+        int best = 0;
+        for (int k = 1; k < parts; k += 1) {
+            int loops = edges[k] - letters[k], bestLoops =
+                edges[best] - letters[best];
+            if (loops > bestLoops
+                || loops == bestLoops && edges[k] > edges[best]) {
+                best = k;
+            }
+        }
+        _loops = edges[best] - letters[best] + 1;
+        _menuLetters = letters[best];
+        _test = -1;
+        for (int c = 0; c < _size; c += 1) {
+            if (part[c] == best && (_test < 0 || degree[c] > degree[_test])) {
+                _test = c;
+            }
+        }
+        _adjacent = new int[_size][];
+        _neighbors = new int[_size][];
+        for (int c = 0; c < _size; c += 1) {
+            int[] adj = new int[part[c] == best ? degree[c] : 0];
+            int[] others = new int[adj.length];
+            int n = 0;
+            for (int e = 0; e < _edges && n < adj.length; e += 1) {
+                if (_from[e] == c || _to[e] == c) {
+                    adj[n] = e;
+                    others[n] = _from[e] == c ? _to[e] : _from[e];
+                    n += 1;
+                }
+            }
+            _adjacent[c] = adj;
+            _neighbors[c] = others;
+        }
+    }
+
+    /** Set PART[X] to K for every letter X joined to C in the menu. */
+    private void label(int c, int k, int[] part) {
+        part[c] = k;
+        for (int e = 0; e < _edges; e += 1) {
+            if (_from[e] == c && part[_to[e]] < 0) {
+                label(_to[e], k, part);
+            } else if (_to[e] == c && part[_from[e]] < 0) {
+                label(_from[e], k, part);
+            }
+        }
+    }
+
+    /** Return the test letter. */
+    char testLetter() {
+        return _alphabet.toChar(_test);
+    }
+
+    /** Return the number of letters in the tested part of the menu. */
+    int menuLetters() {
+        return _menuLetters;
+    }
+
+    /** Return the number of independent loops in the tested part of the
+     *  menu.  Each loop makes a wrong stop less likely to survive. */
+    int loops() {
+        return _loops;
+    }
+
+    /** Return every rotor order of my machine's rotors. */
+    List<Rotor[]> orders() {
+        return orders(_machine);
+    }
+
+    /** Return every rotor order of MACHINE's rotors: a reflector, then
+     *  non-moving rotors, then moving rotors, all distinct, in the order
+     *  of the configuration. */
+    static List<Rotor[]> orders(Machine machine) {
+        ArrayList<Rotor> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (Rotor r : machine.allRotors()) {
+            if (r.reflecting()) {
+                reflectors.add(r);
+            } else if (r.rotates()) {
+                moving.add(r);
+            } else {
+                fixed.add(r);
+            }
+        }
+        ArrayList<Rotor[]> result = new ArrayList<>();
+        int slots = machine.numRotors(), pawls = machine.numPawls();
+        for (Rotor reflector : reflectors) {
+            Rotor[] order = new Rotor[slots];
+            order[0] = reflector;
+            fill(order, 1, slots - pawls, fixed, moving, result);
+        }
+        return result;
+    }
+
+    /** Add to RESULT every completion of ORDER from slot I on, using
+     *  distinct rotors from FIXED before slot FIRSTMOVING and from
+     *  MOVING afterwards. */
+    private static void fill(Rotor[] order, int i, int firstMoving,
+                      List<Rotor> fixed, List<Rotor> moving,
+                      List<Rotor[]> result) {
+        if (i == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        for (Rotor r : i < firstMoving ? fixed : moving) {
+            if (!Arrays.asList(order).subList(0, i).contains(r)) {
+                order[i] = r;
+                fill(order, i + 1, firstMoving, fixed, moving, result);
+            }
+        }
+    }
+
+    /** Return the settings lines of the candidate keys found by trying
+     *  every stop of every rotor order in ORDERS, using THREADS threads.
+     *  The lines are in the order of ORDERS and then of settings; each
+     *  gives only the plugboard pairs the menu implies. */
+    List<String> run(List<Rotor[]> orders, int threads) {
+        int leaves = orders.size() * _size;
+        ArrayList<List<String>> found =
+            new ArrayList<>(Collections.nCopies(leaves, null));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new Sweep(orders, 0, leaves, found));
+        } finally {
+            pool.shutdown();
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (List<String> lines : found) {
+            result.addAll(lines);
+        }
+        return result;
+    }
+
+    /** Tries the stops of a range of rotor orders and settings of the
+     *  leftmost rotor after the reflector, splitting the range among
+     *  the threads of the pool. */
+    private class Sweep extends RecursiveAction {
+
+        /** Tries leaves LO .. HI-1, where leaf K is the rotor order
+         *  ORDERS[K / alphabet size] with the leftmost rotor after the
+         *  reflector at setting K % alphabet size, putting the lines
+         *  found for leaf K in FOUND[K]. */
+        Sweep(List<Rotor[]> orders, int lo, int hi,
+              List<List<String>> found) {
+            _orders = orders;
+            _lo = lo;
+            _hi = hi;
+            _found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Sweep(_orders, _lo, mid, _found),
+                          new Sweep(_orders, mid, _hi, _found));
+            } else if (_hi > _lo) {
+                Rotor[] order = _orders.get(_lo / _size);
+                _found.set(_lo, new Stops(order).sweep(_lo % _size));
+            }
+        }
+
+        /** Rotor orders tried. */
+        private final List<Rotor[]> _orders;
+
+        /** Range of leaves tried. */
+        private final int _lo, _hi;
+
+        /** Lines found, by leaf. */
+        private final List<List<String>> _found;
+    }
+
+    /** The stops of one rotor order, with the tables and working storage
+     *  for trying them. */
+    private class Stops {
+
+        /** Stops with rotor order ORDER. */
+        Stops(Rotor[] order) {
+            _order = order;
+            int n = _size;
+            _forward = new int[_slots][n];
+            _inverse = new int[_slots][n];
+            _notch = new boolean[_slots][n];
+            _rotates = new boolean[_slots];
+            for (int i = 0; i < _slots; i += 1) {
+                Permutation perm = order[i].permutation();
+                for (int c = 0; c < n; c += 1) {
+                    _forward[i][c] = perm.permute(c);
+                    _inverse[i][c] = perm.invert(c);
+                    _notch[i][c] = order[i].notchAt(c);
+                }
+                _rotates[i] = order[i].rotates();
+            }
+            _table = new int[_edges][];
+            _own = new int[_edges][n];
+            _perms = new int[INNER_CACHE * n][n];
+            _valid = new boolean[INNER_CACHE * n];
+            _inner = new int[INNER_CACHE][n];
+            Arrays.fill(_innerKeys, -1);
+        }
+
+        /** Return the settings lines of the candidates among the stops
+         *  with the leftmost rotor after the reflector at setting
+         *  FIRST. */
+        List<String> sweep(int first) {
+            ArrayList<String> result = new ArrayList<>();
+            int[] start = new int[_slots];
+            start[1] = first;
+            while (true) {
+                tryStop(start, result);
+                int i = _slots - 1;
+                for (; i > 1 && start[i] == _size - 1; i -= 1) {
+                    start[i] = 0;
+                }
+                if (i <= 1) {
+                    return result;
+                }
+                start[i] += 1;
+            }
+        }
+
+        /** Try the stop at settings START, adding the settings lines of
+         *  any candidates to RESULT. */
+        private void tryStop(int[] start, List<String> result) {
+            int[] posn = _posn;
+            toCrib(start, posn);
+            int last = _slots - 1;
+            _stamp += 1;
+            for (int e = 0; e < _edges; e += 1) {
+                step(posn);
+                long key = 0;
+                for (int i = 1; i < last; i += 1) {
+                    key = key * _size + posn[i];
+                }
+                _table[e] = permutation(key, posn[last], e);
+            }
+            long untested = _full;
+            while (untested != 0) {
+                int x = Long.numberOfTrailingZeros(untested);
+                if (!close(x)) {
+                    return;
+                }
+                if (consistent() && agrees()) {
+                    result.add(line(start));
+                }
+                untested &= ~_rows[_test];
+            }
+        }
+
+        /** Set POSN to the settings of the rotors just before the first
+         *  keypress of the crib, from settings START at the start of the
+         *  ciphertext.  Short distances are stepped; longer ones are
+         *  jumped with Machine.advance, in time independent of the
+         *  distance for the usual rotors. */
+        private void toCrib(int[] start, int[] posn) {
+            System.arraycopy(start, 0, posn, 0, _slots);
+            if (_offset <= DIRECT_STEPS) {
+                for (long k = 0; k < _offset; k += 1) {
+                    step(posn);
+                }
+                return;
+            }
+            if (_jumper == null) {
+                _jumper = _machine.fork();
+                _jumper.insertRotors(_order);
+                _jumper.setKeystreamBudget(0);
+                _setting = new char[_slots - 1];
+            }
+            for (int i = 1; i < _slots; i += 1) {
+                _setting[i - 1] = _alphabet.toChar(start[i]);
+            }
+            _jumper.setRotors(new String(_setting));
+            _jumper.advance(_offset);
+            System.arraycopy(_jumper.settings(), 0, posn, 0, _slots);
+        }
+
+        /** Advance POSN as for one keypress, as Machine.step does. */
+        private void step(int[] posn) {
+            int last = _slots - 1;
+            for (int i = 0; i <= last; i += 1) {
+                boolean move = i == last;
+                if (!move && _rotates[i] && _rotates[i + 1]) {
+                    move = _notch[i + 1][posn[i + 1]];
+                }
+                if (!move && i > 0 && _rotates[i] && _rotates[i - 1]) {
+                    move = _notch[i][posn[i]];
+                }
+                if (move && _rotates[i]) {
+                    posn[i] = posn[i] + 1 == _size ? 0 : posn[i] + 1;
+                }
+            }
+        }
+
+        /** Follow every implication of the test letter being steckered to
+         *  X, leaving in _rows[C] the letters implied for each letter C.
+         *  Return false, stopping early, if every letter is implied for
+         *  some letter of the menu, and so, in the end, for the test
+         *  letter.  Letters implied for a letter are followed together, as
+         *  a bitset. */
+        private boolean close(int x) {
+            Arrays.fill(_rows, 0);
+            Arrays.fill(_fresh, 0);
+            _head = 0;
+            _tail = 0;
+            if (imply(_test, 1L << x) || imply(x, 1L << _test)) {
+                return false;
+            }
+            while (_head != _tail) {
+                int a = _work[_head];
+                _head = _head + 1 == _work.length ? 0 : _head + 1;
+                long fresh = _fresh[a];
+                _fresh[a] = 0;
+                int[] edges = _adjacent[a], others = _neighbors[a];
+                for (int k = 0; k < edges.length; k += 1) {
+                    int[] table = _table[edges[k]];
+                    long image = 0;
+                    for (long m = fresh; m != 0; m &= m - 1) {
+                        image |= 1L << table[Long.numberOfTrailingZeros(m)];
+                    }
+                    if (imply(others[k], image)) {
+                        return false;
+                    }
+                }
+                for (long m = fresh; m != 0; m &= m - 1) {
+                    if (imply(Long.numberOfTrailingZeros(m), 1L << a)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Record that letter A may be steckered to each of the letters in
+         *  the bitset LETTERS, queueing those that are new to be followed.
+         *  Return true iff A is in the menu and every letter is now
+         *  implied for it. */
+        private boolean imply(int a, long letters) {
+            long fresh = letters & ~_rows[a];
+            if (fresh == 0) {
+                return false;
+            }
+            _rows[a] |= fresh;
+            if (_fresh[a] == 0) {
+                _work[_tail] = a;
+                _tail = _tail + 1 == _work.length ? 0 : _tail + 1;
+            }
+            _fresh[a] |= fresh;
+            return _rows[a] == _full && _adjacent[a].length > 0;
+        }
+
+        /** Return true iff no letter is implied to have more than one
+         *  partner. */
+        private boolean consistent() {
+            for (long row : _rows) {
+                if ((row & (row - 1)) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return true iff every edge of the crib between letters whose
+         *  partners are implied agrees with them. */
+        private boolean agrees() {
+            for (int e = 0; e < _edges; e += 1) {
+                long a = _rows[_from[e]], b = _rows[_to[e]];
+                if (a != 0 && b != 0
+                    && 1L << _table[e][Long.numberOfTrailingZeros(a)] != b) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return the permutation of the rotors with the last at setting
+         *  FAST and the others after the reflector at the settings whose
+         *  digits in base alphabet size are KEY, for edge E of the current
+         *  stop.  Permutations are cached by KEY and FAST, since each is
+         *  used at many stops; one that cannot be, because another used
+         *  at this stop has the same place in the cache, is made in
+         *  storage of E's own. */
+        private int[] permutation(long key, int fast, int e) {
+            int n = _size, slot = (int) (key & (INNER_CACHE - 1));
+            int[] result;
+            if (_innerKeys[slot] == key) {
+                result = _perms[slot * n + fast];
+                if (_valid[slot * n + fast]) {
+                    return result;
+                }
+                _valid[slot * n + fast] = true;
+            } else if (_slotStamps[slot] == _stamp) {
+                inner(key, _spare);
+                compose(_spare, fast, _own[e]);
+                return _own[e];
+            } else {
+                inner(key, _inner[slot]);
+                _innerKeys[slot] = key;
+                _slotStamps[slot] = _stamp;
+                Arrays.fill(_valid, slot * n, slot * n + n, false);
+                _valid[slot * n + fast] = true;
+                result = _perms[slot * n + fast];
+            }
+            _slotStamps[slot] = _stamp;
+            compose(_inner[slot], fast, result);
+            return result;
+        }
+
+        /** Set RESULT to the permutation of the rotors with the last at
+         *  setting FAST, where INNER is that of the others. */
+        private void compose(int[] inner, int fast, int[] result) {
+            int n = _size, f = fast, last = _slots - 1;
+            int[] fwd = _forward[last], inv = _inverse[last];
+            for (int x = 0; x < n; x += 1) {
+                int y = fwd[x + f < n ? x + f : x + f - n] - f;
+                y = inner[y < 0 ? y + n : y];
+                y = inv[y + f < n ? y + f : y + f - n] - f;
+                result[x] = y < 0 ? y + n : y;
+            }
+        }
+
+        /** Set RESULT to the permutation of all rotors but the last, with
+         *  those after the reflector at the settings whose digits in base
+         *  alphabet size are KEY. */
+        private void inner(long key, int[] result) {
+            int n = _size, last = _slots - 1;
+            int[] posn = _slowPosn;
+            long digits = key;
+            for (int i = last - 1; i >= 1; i -= 1) {
+                posn[i] = (int) (digits % n);
+                digits /= n;
+            }
+            for (int c = 0; c < n; c += 1) {
+                int x = c;
+                for (int i = last - 1; i >= 0; i -= 1) {
+                    x = through(_forward[i], x, posn[i]);
+                }
+                for (int i = 1; i < last; i += 1) {
+                    x = through(_inverse[i], x, posn[i]);
+                }
+                result[c] = x;
+            }
+        }
+
+        /** Return the passage of C through the rotor with wiring TABLE at
+         *  setting 0, when it is at setting P. */
+        private int through(int[] table, int c, int p) {
+            int x = table[(c + p) % _size] - p;
+            return x < 0 ? x + _size : x;
+        }
+
+        /** Return the settings line for the stop at settings START, with
+         *  the plugboard pairs implied by _rows. */
+        private String line(int[] start) {
+            StringBuilder result = new StringBuilder("*");
+            for (Rotor r : _order) {
+                result.append(' ').append(r.name());
+            }
+            result.append(' ');
+            for (int i = 1; i < _slots; i += 1) {
+                result.append(_alphabet.toChar(start[i]));
+            }
+            for (int c = 0; c < _size; c += 1) {
+                if (_rows[c] != 0) {
+                    int d = Long.numberOfTrailingZeros(_rows[c]);
+                    if (d > c) {
+                        result.append(" (").append(_alphabet.toChar(c))
+                            .append(_alphabet.toChar(d)).append(')');
+                    }
+                }
+            }
+            return result.toString();
+        }
+
+        /** The rotor order. */
+        private final Rotor[] _order;
+
+        /** _forward[I] is the wiring of the rotor in slot I. */
+        private final int[][] _forward;
+
+        /** _inverse[I] is the inverse wiring of the rotor in slot I. */
+        private final int[][] _inverse;
+
+        /** _notch[I][P] is true iff the rotor in slot I has a notch at
+         *  P. */
+        private final boolean[][] _notch;
+
+        /** _rotates[I] is true iff the rotor in slot I moves. */
+        private final boolean[] _rotates;
+
+        /** A machine with my rotor order, for jumping to the crib, or
+         *  null until needed. */
+        private Machine _jumper;
+
+        /** Working storage for the settings given to _jumper. */
+        private char[] _setting;
+
+        /** Settings of the rotors while stepping through a stop. */
+        private final int[] _posn = new int[_slots];
+
+        /** Settings of the rotors for computing an entry of _inner. */
+        private final int[] _slowPosn = new int[_slots];
+
+        /** _table[E] is the permutation of the rotors at edge E at the
+         *  current stop. */
+        private final int[][] _table;
+
+        /** _own[E] holds _table[E] when it cannot be cached. */
+        private final int[][] _own;
+
+        /** Number of the current stop. */
+        private int _stamp;
+
+        /** _inner[K] is the permutation of all rotors but the last at
+         *  the settings _innerKeys[K] (-1 if none), cached in place K of
+         *  the cache. */
+        private final int[][] _inner;
+
+        /** Settings cached in each place, as digits in base alphabet
+         *  size. */
+        private final long[] _innerKeys = new long[INNER_CACHE];
+
+        /** _slotStamps[K] is the number of the last stop to use place
+         *  K of the cache. */
+        private final int[] _slotStamps = new int[INNER_CACHE];
+
+        /** _perms[K * alphabet size + F] is the permutation of the rotors
+         *  with those but the last as in _inner[K], and the last at
+         *  setting F, if _valid[K * alphabet size + F]. */
+        private final int[][] _perms;
+
+        /** Which entries of _perms are valid. */
+        private final boolean[] _valid;
+
+        /** Working storage for a permutation that cannot be cached. */
+        private final int[] _spare = new int[_size];
+
+        /** _rows[C] is the set of letters implied to be steckered to C. */
+        private final long[] _rows = new long[_size];
+
+        /** _fresh[C] is the set of letters implied for C whose
+         *  implications are yet to be followed. */
+        private final long[] _fresh = new long[_size];
+
+        /** Letters with implications to be followed, in the order found,
+         *  which makes a full set of letters for one appear soonest. */
+        private final int[] _work = new int[_size + 1];
+
+        /** _work is a circular queue, from _work[_head] to just before
+         *  _work[_tail]. */
+        private int _head, _tail;
+    }
+
+    /** Return the LENGTH letters of the ciphertext read from INPUT that
+     *  start OFFSET letters into it, ignoring whitespace.  Only those
+     *  letters are kept, so the ciphertext may be of any length. */
+    static String window(Reader input, long offset, int length)
+        throws IOException {
+        StringBuilder result = new StringBuilder(length);
+        char[] buf = new char[Transcriber.BUFFER_SIZE];
+        long count = 0;
+        for (int n = input.read(buf); n >= 0 && result.length() < length;
+             n = input.read(buf)) {
+            for (int i = 0; i < n && result.length() < length; i += 1) {
+                if (!Character.isWhitespace(buf[i])) {
+                    if (count >= offset) {
+                        result.append(buf[i]);
+                    }
+                    count += 1;
+                }
+            }
+        }
+        if (result.length() < length) {
+            throw error("crib does not fit the ciphertext at %d", offset);
+        }
+        return result.toString();
+    }
+
+    /** Print on the standard output the candidate settings lines for a
+     *  crib.  ARGS are the name of a configuration file, the name of a
+     *  file holding the ciphertext, the crib, its offset in the
+     *  ciphertext (as printed by CribDragger), and, optionally, the
+     *  number of threads.  A summary of the menu and the time taken are
+     *  printed on the standard error. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 4 || args.length > 5) {
+            throw error("Only 4 or 5 command-line arguments allowed");
+        }
+        Machine machine =
+            Config.load(new String(Files.readAllBytes(Paths.get(args[0]))),
+                        null).newMachine();
+        long offset = Long.parseLong(args[3]);
+        String cipher;
+        try (Reader input = new MappedReader(args[1])) {
+            cipher = window(input, offset,
+                            letters(machine.alphabet(), args[2]).length);
+        }
+        Bombe bombe = new Bombe(machine, cipher, args[2], offset);
+        int threads = args.length > 4 ? Integer.parseInt(args[4])
+            : Runtime.getRuntime().availableProcessors();
+        List<Rotor[]> orders = bombe.orders();
+        System.err.printf("menu: %d letters, %d loops, test letter %c; "
+                          + "%d rotor orders%n", bombe.menuLetters(),
+                          bombe.loops(), bombe.testLetter(), orders.size());
+        long start = System.nanoTime();
+        for (String line : bombe.run(orders, threads)) {
+            System.out.println(line);
+        }
+        System.err.printf("%.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /** Number of permutations of all rotors but the last cached by each
+     *  thread; a power of 2. */
+    private static final int INNER_CACHE = 64;
+
+    /** Largest offset of the crib reached by stepping the rotors of each
+     *  stop rather than by Machine.advance. */
+    private static final int DIRECT_STEPS = 64;
+
+    /** Machine giving my configuration and available rotors. */
+    private final Machine _machine;
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Number of edges in the menu: one per crib letter. */
+    private final int _edges;
+
+    /** Edge E joins crib letter _from[E] to ciphertext letter _to[E], at
+     *  keypress _offset + E + 1 from the start of the ciphertext. */
+    private final int[] _from, _to;
+
+    /** Number of letters of the ciphertext before the crib. */
+    private final long _offset;
+
+    /** _adjacent[C] lists the edges at letter C in the tested part of
+     *  the menu. */
+    private int[][] _adjacent;
+
+    /** _neighbors[C][K] is the letter joined to C by edge
+     *  _adjacent[C][K]. */
+    private int[][] _neighbors;
+
+    /** The test letter. */
+    private int _test;
+
+    /** The set of all letters. */
+    private final long _full;
+
+    /** Number of letters in the tested part of the menu. */
+    private int _menuLetters;
+
+    /** Number of independent loops in the tested part of the menu. */
+    private int _loops;
+
+}
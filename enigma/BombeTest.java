@@ -0,0 +1,142 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Matthew Jihoon Lee
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A key used in the tests. */
+    private static final String KEY =
+        "* C III I IV KDQ (AQ) (EP) (TZ) (BY) (HW)";
+
+    /** Plaintext encrypted with KEY in the tests. */
+    private static final String PLAIN =
+        "HEREISTHEWEATHERFORECASTFORTHEBAYOFBISCAYTOMORROW";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testOrders() {
+        Machine machine = fourSlotMachine();
+        Main.setUp(machine, KEY);
+        Bombe bombe = new Bombe(machine,
+                                machine.convert(PLAIN).substring(9, 24),
+                                PLAIN.substring(9, 24), 9);
+        List<Rotor[]> orders = bombe.orders();
+        assertEquals(2 * 4 * 3 * 2, orders.size());
+        for (Rotor[] order : orders) {
+            assertTrue(order[0].reflecting());
+            for (int i = 1; i < order.length; i += 1) {
+                assertTrue(order[i].rotates());
+            }
+        }
+    }
+
+    @Test
+    public void testFindsKey() throws IOException {
+        Machine machine = fourSlotMachine();
+        Main.setUp(machine, KEY);
+        String ciphertext = machine.convert(PLAIN);
+        String crib = PLAIN.substring(7, 31);
+        String cipher =
+            Bombe.window(new StringReader(ciphertext), 7, crib.length());
+        assertEquals(ciphertext.substring(7, 31), cipher);
+        Bombe bombe = new Bombe(fourSlotMachine(), cipher, crib, 7);
+        assertTrue(bombe.loops() > 1);
+        List<String> lines = bombe.run(bombe.orders(), 2);
+        String found = null;
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("* "));
+            if (line.startsWith("* C III I IV KDQ")) {
+                assertNull(found);
+                found = line;
+            }
+        }
+        assertNotNull(found);
+        for (String pair : found.substring(17).split(" ")) {
+            assertTrue(pair, KEY.contains(pair)
+                       || KEY.contains("(" + pair.charAt(2)
+                                       + pair.charAt(1) + ")"));
+        }
+        Machine check = fourSlotMachine();
+        Main.setUp(check, found);
+        String plain = check.convert(ciphertext);
+        int agree = 0;
+        for (int i = 0; i < crib.length(); i += 1) {
+            agree += plain.charAt(7 + i) == crib.charAt(i) ? 1 : 0;
+        }
+        assertTrue(agree > crib.length() / 2);
+        assertTrue(lines.size() < 10);
+    }
+
+    @Test
+    public void testLongOffset() {
+        long offset = 3_000_000_000L;
+        Machine machine = fourSlotMachine();
+        Main.setUp(machine, KEY);
+        machine.advance(offset);
+        String crib = PLAIN.substring(7, 31);
+        Bombe bombe =
+            new Bombe(fourSlotMachine(), machine.convert(crib), crib, offset);
+        ArrayList<Rotor[]> orders = new ArrayList<>();
+        for (Rotor[] order : bombe.orders()) {
+            if (order[0].name().equals("C") && order[1].name().equals("III")
+                && order[2].name().equals("I")) {
+                orders.add(order);
+            }
+        }
+        boolean found = false;
+        for (String line : bombe.run(orders, 2)) {
+            found |= line.startsWith("* C III I IV KDQ");
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        Machine machine = fourSlotMachine();
+        Main.setUp(machine, KEY);
+        String ciphertext = machine.convert(PLAIN);
+        String[][] bad = {
+            {ciphertext.substring(5, 10), ciphertext.substring(5, 10), "5"},
+            {ciphertext.substring(10, 16), "WEATHER", "10"},
+            {ciphertext.substring(10, 17), "WEATHER", "-1"},
+            {ciphertext.substring(10, 18), "WEATHER!", "10"},
+        };
+        for (String[] args : bad) {
+            try {
+                new Bombe(machine, args[0], args[1],
+                          Long.parseLong(args[2]));
+                fail("accepted crib " + args[1] + " at " + args[2]);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+        try {
+            Bombe.window(new StringReader(ciphertext),
+                         ciphertext.length() - 3, 7);
+            fail("crib past the end of the ciphertext accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}
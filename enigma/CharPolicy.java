@@ -0,0 +1,18 @@
+package enigma;
+
+/** The ways a Machine may treat message characters that are not in its
+ *  alphabet.  Such characters never advance the rotors.
+ *  @author Matthew Jihoon Lee
+ */
+public enum CharPolicy {
+
+    /** Copy the character (in upper case) to the output. */
+    PASS,
+
+    /** Leave the character out of the output. */
+    STRIP,
+
+    /** Refuse to convert any message containing the character. */
+    REJECT;
+
+}
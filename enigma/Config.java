@@ -0,0 +1,219 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A parsed machine configuration: an alphabet, the numbers of rotor
+ *  slots and pawls, and the available rotors.  Since rotors keep no
+ *  state, one Config may supply any number of machines.  A Config can
+ *  also be saved in a compiled binary form holding each rotor's
+ *  permutation table, which loads without parsing.
+ *  @author Matthew Jihoon Lee
+ */
+class Config {
+
+    /** A configuration with alphabet ALPHABET, NUMROTORS rotor slots,
+     *  PAWLS pawls, and the available rotors ROTORS. */
+    Config(Alphabet alphabet, int numRotors, int pawls, List<Rotor> rotors) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _rotors = Collections.unmodifiableList(new ArrayList<>(rotors));
+    }
+
+    /** Return the configuration described by TEXT.  If CACHE is not
+     *  null, it names a directory of compiled configurations keyed by
+     *  the SHA-256 hash of their text: the configuration is loaded from
+     *  there if present, and otherwise parsed and saved there. */
+    static Config load(String text, Path cache) {
+        if (cache == null) {
+            return ConfigParser.parse(text);
+        }
+        Path file = cache.resolve(hash(text) + SUFFIX);
+        if (Files.isReadable(file)) {
+            try {
+                return read(file);
+            } catch (IOException | RuntimeException excp) {
+                /* Unreadable, corrupt, or stale: compile it again. */
+            }
+        }
+        Config result = ConfigParser.parse(text);
+        Path temp = null;
+        try {
+            Files.createDirectories(cache);
+            temp = Files.createTempFile(cache, "config", ".tmp");
+            result.write(temp);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (IOException excp) {
+            /* The cache is an optimization; carry on without it. */
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException excp) {
+                    /* Leave it. */
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return a new machine with this configuration. */
+    Machine newMachine() {
+        return new Machine(_alphabet, _numRotors, _pawls, _rotors);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return my available rotors. */
+    List<Rotor> rotors() {
+        return _rotors;
+    }
+
+    /** Save my compiled form in FILE. */
+    void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(_alphabet.size());
+            for (int c = 0; c < _alphabet.size(); c += 1) {
+                out.writeChar(_alphabet.toChar(c));
+            }
+            out.writeInt(_numRotors);
+            out.writeInt(_pawls);
+            out.writeInt(_rotors.size());
+            for (Rotor r : _rotors) {
+                out.writeUTF(r.name());
+                if (r.reflecting()) {
+                    out.writeUTF("R");
+                } else if (r.rotates()) {
+                    out.writeUTF("M" + ((MovingRotor) r).notches());
+                } else {
+                    out.writeUTF("N");
+                }
+                for (int c = 0; c < _alphabet.size(); c += 1) {
+                    out.writeChar(r.permutation().permute(c));
+                }
+            }
+        }
+    }
+
+    /** Return the configuration saved by write(FILE).  Throws an
+     *  IOException if FILE is not such a configuration, checking every
+     *  length it holds against the size of FILE before using it. */
+    static Config read(Path file) throws IOException {
+        long size = Files.size(file);
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a compiled configuration");
+            }
+            char[] chars = new char[count(in, 1, size / Character.BYTES)];
+            for (int c = 0; c < chars.length; c += 1) {
+                chars[c] = in.readChar();
+            }
+            Alphabet alphabet = new Alphabet(new String(chars));
+            int numRotors = in.readInt();
+            int pawls = in.readInt();
+            int count =
+                count(in, 0, size / ((long) Character.BYTES * chars.length));
+            ArrayList<Rotor> rotors = new ArrayList<>();
+            for (int k = 0; k < count; k += 1) {
+                String name = in.readUTF();
+                String type = in.readUTF();
+                int[] forward = new int[chars.length];
+                for (int c = 0; c < forward.length; c += 1) {
+                    forward[c] = in.readChar();
+                }
+                Permutation perm = new Permutation(forward, alphabet);
+                if (type.startsWith("M")) {
+                    rotors.add(new MovingRotor(name, perm,
+                                               type.substring(1)));
+                } else if (type.equals("N")) {
+                    rotors.add(new FixedRotor(name, perm));
+                } else if (type.equals("R")) {
+                    rotors.add(new Reflector(name, perm));
+                } else {
+                    throw new IOException("bad rotor type");
+                }
+            }
+            if (in.read() >= 0) {
+                throw new IOException("data after compiled configuration");
+            }
+            return new Config(alphabet, numRotors, pawls, rotors);
+        }
+    }
+
+    /** Return the next int from IN, which must be from MIN to MAX. */
+    private static int count(DataInputStream in, long min, long max)
+        throws IOException {
+        int result = in.readInt();
+        if (result < min || result > max) {
+            throw new IOException("corrupt compiled configuration");
+        }
+        return result;
+    }
+
+    /** Return the SHA-256 hash of TEXT, in hexadecimal. */
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(text.getBytes(Charset.forName("UTF-8")));
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-256 is not available");
+        }
+    }
+
+    /** First word of a compiled configuration (version 1). */
+    private static final int MAGIC = 0x456e6701;
+
+    /** Suffix of compiled configuration file names. */
+    private static final String SUFFIX = ".enigma";
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** The available rotors. */
+    private final List<Rotor> _rotors;
+
+}
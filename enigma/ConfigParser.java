@@ -0,0 +1,131 @@
+package enigma;
+
+import java.util.ArrayList;
+
+import static enigma.EnigmaException.*;
+
+/** A parser for machine configurations, which have the format read by
+ *  Main: the alphabet on the first line, then the numbers of rotor slots
+ *  and pawls, then for each available rotor its name, its type and
+ *  notches ('M' followed by the notches for a moving rotor, 'N' for a
+ *  fixed rotor, 'R' for a reflector), and its permutation in cycle
+ *  notation.  Names, types, notches, and cycles are read in upper case.
+ *  The text is scanned once, without an intermediate list of tokens,
+ *  and each rotor's cycles are passed as one substring to Permutation,
+ *  which checks them as it builds its tables.
+ *  @author Matthew Jihoon Lee
+ */
+class ConfigParser {
+
+    /** Return the configuration described by TEXT. */
+    static Config parse(String text) {
+        return new ConfigParser(text).config();
+    }
+
+    /** A parser for the configuration described by TEXT. */
+    private ConfigParser(String text) {
+        _text = text;
+    }
+
+    /** Return the configuration described by my text. */
+    private Config config() {
+        int eol = _text.indexOf('\n');
+        String chars = eol < 0 ? _text : _text.substring(0, eol);
+        if (chars.endsWith("\r")) {
+            chars = chars.substring(0, chars.length() - 1);
+        }
+        Alphabet alphabet = new Alphabet(chars);
+        _pos = eol < 0 ? _text.length() : eol + 1;
+        int numRotors = nextInt();
+        int pawls = nextInt();
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        skipWhitespace();
+        if (_pos == _text.length()) {
+            throw error("configuration file truncated");
+        }
+        while (_pos < _text.length()) {
+            rotors.add(nextRotor(alphabet));
+            skipWhitespace();
+        }
+        return new Config(alphabet, numRotors, pawls, rotors);
+    }
+
+    /** Return the next token, which must be an integer. */
+    private int nextInt() {
+        String token = nextToken();
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException excp) {
+            throw error("Format of config wrong");
+        }
+    }
+
+    /** Return the next rotor description, using ALPHABET. */
+    private Rotor nextRotor(Alphabet alphabet) {
+        String name = nextToken().toUpperCase();
+        if (name.indexOf('(') >= 0 || name.indexOf(')') >= 0) {
+            throw error("bad rotor name: %s", name);
+        }
+        String type = nextToken().toUpperCase();
+        skipWhitespace();
+        int start = _pos;
+        while (_pos < _text.length() && _text.charAt(_pos) == '(') {
+            String cycle = nextToken();
+            if (cycle.charAt(cycle.length() - 1) != ')') {
+                throw error("unbalanced parentheses in rotor %s", name);
+            }
+            skipWhitespace();
+        }
+        Permutation perm =
+            new Permutation(_text.substring(start, _pos).toUpperCase(),
+                            alphabet);
+        switch (type.charAt(0)) {
+        case 'M':
+            return new MovingRotor(name, perm, type.substring(1));
+        case 'N':
+            checkNoNotches(name, type);
+            return new FixedRotor(name, perm);
+        case 'R':
+            checkNoNotches(name, type);
+            return new Reflector(name, perm);
+        default:
+            throw error("bad type for rotor %s: %s", name, type);
+        }
+    }
+
+    /** Check that TYPE, the type of rotor NAME, has no notches. */
+    private static void checkNoNotches(String name, String type) {
+        if (type.length() > 1) {
+            throw error("rotor %s cannot have notches", name);
+        }
+    }
+
+    /** Return the next whitespace-delimited token, which must exist. */
+    private String nextToken() {
+        skipWhitespace();
+        int start = _pos;
+        while (_pos < _text.length()
+               && !Character.isWhitespace(_text.charAt(_pos))) {
+            _pos += 1;
+        }
+        if (start == _pos) {
+            throw error("configuration file truncated");
+        }
+        return _text.substring(start, _pos);
+    }
+
+    /** Advance past any whitespace. */
+    private void skipWhitespace() {
+        while (_pos < _text.length()
+               && Character.isWhitespace(_text.charAt(_pos))) {
+            _pos += 1;
+        }
+    }
+
+    /** The configuration text. */
+    private final String _text;
+
+    /** Position of the next character of _text to scan. */
+    private int _pos;
+
+}
@@ -0,0 +1,146 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for the ConfigParser and Config classes.
+ *  @author Matthew Jihoon Lee
+ */
+public class ConfigTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** A configuration with every kind of rotor. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n";
+
+    /** Settings for the machine configured by CONFIG. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return the conversion of a message by a machine made from
+     *  CONFIG. */
+    private String convert(Config config) {
+        Machine machine = config.newMachine();
+        Main.setUp(machine, SETTINGS);
+        return machine.convert("FROMHISSHOULDERHIAWATHA");
+    }
+
+    @Test
+    public void testParse() {
+        Config config = ConfigParser.parse(CONFIG);
+        assertEquals(5, config.numRotors());
+        assertEquals(3, config.numPawls());
+        assertEquals(5, config.rotors().size());
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW", convert(config));
+    }
+
+    @Test
+    public void testCreate() {
+        Machine machine = Machine.create(CONFIG, SETTINGS);
+        machine.setPolicy(CharPolicy.STRIP);
+        assertEquals(CharPolicy.STRIP, machine.policy());
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     machine.convert("From his shoulder, Hiawatha"));
+        machine.setUp(SETTINGS);
+        assertEquals("FROMHISSHOULDERHIAWATHA",
+                     machine.convert("QVPQS OKOIL PUBKJ ZPISF XDW"));
+        try {
+            Machine.create(CONFIG, "* B Beta III IV X AXLE");
+            fail("unknown rotor accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testCompiledCache() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Config parsed = Config.load(CONFIG, dir);
+        assertEquals(1, dir.toFile().list().length);
+        Path compiled = dir.resolve(dir.toFile().list()[0]);
+        Config loaded = Config.read(compiled);
+        assertEquals(convert(parsed), convert(loaded));
+        assertEquals(convert(parsed), convert(Config.load(CONFIG, dir)));
+        Files.delete(compiled);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testUnwritableCache() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        String expected = convert(Config.load(CONFIG, dir));
+        Path compiled = dir.resolve(dir.toFile().list()[0]);
+        Files.delete(compiled);
+        Path blocker = Files.createDirectories(compiled.resolve("blocker"));
+        assertEquals(expected, convert(Config.load(CONFIG, dir)));
+        assertArrayEquals(new String[] { compiled.getFileName().toString() },
+                          dir.toFile().list());
+        Files.delete(blocker);
+        Files.delete(compiled);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testCorruptCache() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        String expected = convert(Config.load(CONFIG, dir));
+        Path compiled = dir.resolve(dir.toFile().list()[0]);
+        byte[] good = Files.readAllBytes(compiled);
+        int alphabetSize = 4, count = 8 + 2 * 26 + 8, typeLength = count + 7;
+        int[][] changes = {
+            {alphabetSize, 0x7f}, {alphabetSize, 0xff}, {count, 0x7f},
+            {count, 0xff}, {typeLength, 0}, {typeLength + 1, 0},
+        };
+        for (int[] change : changes) {
+            byte[] bad = good.clone();
+            for (int k = 0; k < 4; k += 1) {
+                bad[change[0] + k] = (byte) change[1];
+            }
+            Files.write(compiled, bad);
+            assertEquals(expected, convert(Config.load(CONFIG, dir)));
+            assertArrayEquals(good, Files.readAllBytes(compiled));
+        }
+        for (int len : new int[] {0, 6, good.length / 2, good.length + 1}) {
+            Files.write(compiled, java.util.Arrays.copyOf(good, len));
+            assertEquals(expected, convert(Config.load(CONFIG, dir)));
+        }
+        Files.delete(compiled);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testErrors() {
+        String[] bad = {
+            "ABC\n",
+            "ABC\n 3 x\n",
+            "ABC\n 2 1 R R (AB\n",
+            "ABC\n 2 1 R R (AB) (BC)\n",
+            "ABC\n 2 1 R Q (AB)\n",
+            "ABC\n 2 1 R N3 (AB)\n",
+        };
+        for (String text : bad) {
+            try {
+                ConfigParser.parse(text);
+                fail("accepted " + text);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+}
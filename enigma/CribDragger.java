@@ -0,0 +1,256 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+import static enigma.EnigmaException.*;
+
+/** Finds the places in a ciphertext where a crib could lie.  Since the
+ *  reflector has no fixed points, no letter ever encrypts to itself, so
+ *  the crib cannot be at any offset where one of its letters is above
+ *  the same letter of the ciphertext.
+ *
+ *  The ciphertext is read in blocks.  For each distinct letter of the
+ *  crib, a block has a bitset of the positions holding that letter.  An
+ *  offset is ruled out by crib letter I if bit I after it is set in that
+ *  letter's bitset, so the offsets ruled out are the OR of the bitsets
+ *  shifted by the position of each crib letter, computed 64 offsets to a
+ *  word.  Blocks are examined by a pool of threads and their offsets are
+ *  delivered in order, with a bounded number of blocks held at once, so
+ *  ciphertexts of any length are streamed.  Offsets count letters from
+ *  the start of the ciphertext, ignoring whitespace, as Bombe does.
+ *  @author Matthew Jihoon Lee
+ */
+class CribDragger {
+
+    /** A CribDragger for CRIB, whose letters are in ALPHABET, ignoring
+     *  whitespace, using one thread per available processor. */
+    CribDragger(Alphabet alphabet, String crib) {
+        this(alphabet, crib, Runtime.getRuntime().availableProcessors(),
+             BLOCK_SIZE);
+    }
+
+    /** As for CribDragger(ALPHABET, CRIB), but with THREADS threads, each
+     *  examining blocks of BLOCK offsets, rounded up to a multiple of
+     *  64. */
+    CribDragger(Alphabet alphabet, String crib, int threads, int block) {
+        _alphabet = alphabet;
+        _threads = threads;
+        _block = (Math.max(block, 1) + Long.SIZE - 1) & -Long.SIZE;
+        _codes = new int[alphabet.size()];
+        int[] letters = new int[crib.length()];
+        int n = 0;
+        for (int i = 0; i < crib.length(); i += 1) {
+            char ch = crib.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                int c = alphabet.toInt(ch);
+                if (_codes[c] == 0) {
+                    _distinct += 1;
+                    _codes[c] = _distinct;
+                }
+                letters[n] = _codes[c];
+                n += 1;
+            }
+        }
+        if (n == 0) {
+            throw error("empty crib");
+        } else if (_distinct > MAX_DISTINCT) {
+            throw error("too many distinct letters in crib");
+        }
+        _crib = Arrays.copyOf(letters, n);
+    }
+
+    /** Return the number of letters in the crib. */
+    int length() {
+        return _crib.length;
+    }
+
+    /** Pass to OFFSETS, in increasing order, each offset in the
+     *  ciphertext read from INPUT at which the crib could lie. */
+    void drag(Reader input, LongConsumer offsets) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(_threads,
+            task -> {
+                Thread thread = new Thread(task, "enigma-crib");
+                thread.setDaemon(true);
+                return thread;
+            });
+        ArrayDeque<Future<long[]>> window = new ArrayDeque<>();
+        int overlap = _crib.length - 1;
+        byte[] codes = new byte[_block + overlap];
+        int count = 0;
+        long base = 0;
+        try {
+            char[] buf = new char[Transcriber.BUFFER_SIZE];
+            for (int n = input.read(buf); n >= 0; n = input.read(buf)) {
+                for (int i = 0; i < n; i += 1) {
+                    char ch = buf[i];
+                    int c = _alphabet.indexOf(ch);
+                    if (c < 0) {
+                        if (Character.isWhitespace(ch)) {
+                            continue;
+                        }
+                        throw error("character '%c' is not in the alphabet",
+                                    ch);
+                    }
+                    codes[count] = (byte) _codes[c];
+                    count += 1;
+                    if (count == codes.length) {
+                        byte[] full = codes;
+                        codes = new byte[full.length];
+                        System.arraycopy(full, _block, codes, 0, overlap);
+                        count = overlap;
+                        if (window.size() >= WINDOW_PER_THREAD * _threads) {
+                            deliver(window.remove(), base, offsets);
+                            base += _block;
+                        }
+                        window.add(workers.submit(() ->
+                            offsets(full, full.length)));
+                    }
+                }
+            }
+            if (count > overlap) {
+                byte[] last = codes;
+                int len = count;
+                window.add(workers.submit(() -> offsets(last, len)));
+            }
+            while (!window.isEmpty()) {
+                deliver(window.remove(), base, offsets);
+                base += _block;
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /** Pass to OFFSETS BASE + K for each bit K set in the result of
+     *  VALID, in increasing order. */
+    private void deliver(Future<long[]> valid, long base,
+                         LongConsumer offsets) throws IOException {
+        long[] words;
+        try {
+            words = valid.get();
+        } catch (InterruptedException excp) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        for (int w = 0; w < words.length; w += 1) {
+            for (long m = words[w]; m != 0; m &= m - 1) {
+                offsets.accept(base + ((long) w << 6)
+                               + Long.numberOfTrailingZeros(m));
+            }
+        }
+    }
+
+    /** Return a bitset of the offsets K at which the crib could lie in
+     *  the ciphertext whose first LEN letters have the codes in CODES
+     *  (the crib letter numbers from 1, or 0 for letters not in the
+     *  crib), for 0 <= K <= LEN - length(). */
+    long[] offsets(byte[] codes, int len) {
+        int count = len - _crib.length + 1;
+        int words = (count + Long.SIZE - 1) >>> 6;
+        long[][] masks =
+            new long[_distinct + 1][words + (_crib.length >>> 6) + 2];
+        for (int p = 0; p < len; p += 1) {
+            masks[codes[p]][p >>> 6] |= 1L << p;
+        }
+        long[] bad = new long[words];
+        for (int i = 0; i < _crib.length; i += 1) {
+            long[] mask = masks[_crib[i]];
+            int q = i >>> 6, r = i & (Long.SIZE - 1);
+            if (r == 0) {
+                for (int w = 0; w < words; w += 1) {
+                    bad[w] |= mask[w + q];
+                }
+            } else {
+                for (int w = 0; w < words; w += 1) {
+                    bad[w] |= mask[w + q] >>> r
+                        | mask[w + q + 1] << (Long.SIZE - r);
+                }
+            }
+        }
+        for (int w = 0; w < words; w += 1) {
+            bad[w] = ~bad[w];
+        }
+        if ((count & (Long.SIZE - 1)) != 0) {
+            bad[words - 1] &= (1L << count) - 1;
+        }
+        return bad;
+    }
+
+    /** Print on the standard output, one to a line, the offsets at which
+     *  a crib could lie in a ciphertext.  ARGS are the name of a
+     *  configuration file, the name of a file holding the ciphertext, the
+     *  crib, and, optionally, the number of threads. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            throw error("Only 3 or 4 command-line arguments allowed");
+        }
+        Alphabet alphabet =
+            Config.load(new String(Files.readAllBytes(Paths.get(args[0]))),
+                        null).alphabet();
+        int threads = args.length > 3 ? Integer.parseInt(args[3])
+            : Runtime.getRuntime().availableProcessors();
+        CribDragger dragger =
+            new CribDragger(alphabet, args[2], threads, BLOCK_SIZE);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        String nl = System.lineSeparator();
+        try (Reader input = new MappedReader(args[1])) {
+            dragger.drag(input, offset -> {
+                try {
+                    out.write(Long.toString(offset));
+                    out.write(nl);
+                } catch (IOException excp) {
+                    throw error("could not write offsets");
+                }
+            });
+        }
+        out.flush();
+    }
+
+    /** Default number of offsets in a block. */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    /** Largest number of distinct letters in a crib. */
+    private static final int MAX_DISTINCT = Byte.MAX_VALUE;
+
+    /** Maximum number of blocks held per thread. */
+    private static final int WINDOW_PER_THREAD = 4;
+
+    /** Alphabet of the ciphertext and crib. */
+    private final Alphabet _alphabet;
+
+    /** Number of threads. */
+    private final int _threads;
+
+    /** Number of offsets in a block: a multiple of 64. */
+    private final int _block;
+
+    /** _codes[C] is the number of letter C among the distinct letters of
+     *  the crib, from 1, or 0 if C is not in the crib. */
+    private final int[] _codes;
+
+    /** Number of distinct letters in the crib. */
+    private int _distinct;
+
+    /** The crib, as the numbers of its letters in _codes. */
+    private final int[] _crib;
+
+}
@@ -0,0 +1,118 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CribDragger class.
+ *  @author Matthew Jihoon Lee
+ */
+public class CribDraggerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a random string of LENGTH letters from the first LETTERS
+     *  of the alphabet using RANDOM, with blanks and line ends among them
+     *  iff SPACED. */
+    private String random(Random random, int length, int letters,
+                          boolean spaced) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            if (spaced && random.nextInt(6) == 0) {
+                result.append(random.nextBoolean() ? " " : "\n");
+            }
+            result.append((char) ('A' + random.nextInt(letters)));
+        }
+        return result.toString();
+    }
+
+    /** Return the offsets at which CRIB could lie in TEXT, found one
+     *  letter at a time. */
+    private List<Long> naive(String text, String crib) {
+        String letters = text.replaceAll("\\s", "");
+        ArrayList<Long> result = new ArrayList<>();
+        for (int k = 0; k + crib.length() <= letters.length(); k += 1) {
+            boolean fits = true;
+            for (int i = 0; i < crib.length() && fits; i += 1) {
+                fits = crib.charAt(i) != letters.charAt(k + i);
+            }
+            if (fits) {
+                result.add((long) k);
+            }
+        }
+        return result;
+    }
+
+    /** Return the offsets found for CRIB in TEXT by a CribDragger with
+     *  THREADS threads and blocks of BLOCK offsets. */
+    private List<Long> drag(String text, String crib, int threads,
+                            int block) throws IOException {
+        ArrayList<Long> result = new ArrayList<>();
+        new CribDragger(UPPER, crib, threads, block)
+            .drag(new StringReader(text), result::add);
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSameAsNaive() throws IOException {
+        Random random = new Random(24);
+        for (int trial = 0; trial < 40; trial += 1) {
+            int letters = 2 + random.nextInt(25);
+            String text = random(random, random.nextInt(3000), letters,
+                                 true);
+            String crib = random(random, 1 + random.nextInt(150), letters,
+                                 false);
+            List<Long> expected = naive(text, crib);
+            assertEquals(expected, drag(text, crib, 1, 1 << 20));
+            assertEquals(expected, drag(text, crib, 3, 64));
+            assertEquals(expected,
+                         drag(text, crib, 2, 1 + random.nextInt(500)));
+        }
+    }
+
+    @Test
+    public void testFindsCrib() throws IOException {
+        Machine machine = navalMachine();
+        Main.setUp(machine, "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR)");
+        Random random = new Random(25);
+        String plain = random(random, 5000, 26, false);
+        String crib = "WETTERVORHERSAGE";
+        plain = plain.substring(0, 3210) + crib + plain.substring(3210);
+        List<Long> offsets = drag(machine.convert(plain), crib, 2, 1000);
+        assertTrue(offsets.contains(3210L));
+        assertTrue(offsets.size() < plain.length() * 3 / 4);
+    }
+
+    @Test
+    public void testShort() throws IOException {
+        assertEquals(new ArrayList<Long>(), drag("ABC", "XYZW", 2, 64));
+        assertEquals(List.of(0L), drag("AB C", "XYZ", 2, 64));
+        assertEquals(List.of(1L), drag("XBCA", "XYZ", 2, 64));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadCiphertext() throws IOException {
+        drag("ABC*DEF", "XYZ", 2, 64);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadCrib() {
+        new CribDragger(UPPER, "XY1", 2, 64);
+    }
+
+}
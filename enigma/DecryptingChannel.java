@@ -0,0 +1,139 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** A read-only view of the plaintext of a file of ciphertext, supporting
+ *  random access.  Every byte of the file must be a character of the
+ *  machine's alphabet in the ISO-8859-1 encoding, so that the byte at
+ *  offset N is the (N+1)st keypress; reading any other byte is an I/O
+ *  error.  Reading at a new position sets the rotors for that position
+ *  with Machine.advance rather than by converting everything before it,
+ *  and only the bytes requested are read, so memory use does not depend
+ *  on the size of the file.
+ *  @author Matthew Jihoon Lee
+ */
+class DecryptingChannel implements SeekableByteChannel {
+
+    /** A channel decrypting CIPHERTEXT, which starts at the current
+     *  settings of MACHINE.  MACHINE itself is not changed. */
+    DecryptingChannel(Machine machine, FileChannel ciphertext) {
+        _start = machine.fork();
+        _start.setPolicy(CharPolicy.REJECT);
+        _machine = _start.fork();
+        _file = ciphertext;
+    }
+
+    /** Return a channel decrypting the file named by PATH, whose first
+     *  byte was converted by a machine like MACHINE set up by the
+     *  settings line SETTINGS.  MACHINE itself is not changed. */
+    static DecryptingChannel open(Machine machine, String settings,
+                                  Path path) throws IOException {
+        Machine start = machine.fork();
+        Main.setUp(start, settings.trim());
+        return new DecryptingChannel(start,
+                                     FileChannel.open(path,
+                                                      StandardOpenOption.READ));
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        int start = dst.position();
+        int n = _file.read(dst, _position);
+        if (n <= 0) {
+            return n;
+        }
+        if (_keys > _position) {
+            _machine = _start.fork();
+            _keys = 0;
+        }
+        _machine.advance(_position - _keys);
+        ByteBuffer text = dst.duplicate();
+        text.limit(start + n).position(start);
+        try {
+            _machine.convert(text, text.duplicate());
+        } catch (EnigmaException excp) {
+            _keys = _position;
+            dst.position(start);
+            throw new IOException(String.format("cannot decrypt bytes %d-%d:"
+                                                + " %s", _position,
+                                                _position + n - 1,
+                                                excp.getMessage()));
+        }
+        _position += n;
+        _keys = _position;
+        return n;
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkOpen();
+        return _position;
+    }
+
+    @Override
+    public DecryptingChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position");
+        }
+        _position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        checkOpen();
+        return _file.size();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return _file.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _file.close();
+    }
+
+    /** Throw an exception if I have been closed. */
+    private void checkOpen() throws IOException {
+        if (!_file.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /** The ciphertext. */
+    private final FileChannel _file;
+
+    /** A machine set for the first byte of _file. */
+    private final Machine _start;
+
+    /** A machine set for the byte of _file at offset _keys. */
+    private Machine _machine;
+
+    /** Number of keypresses _machine has made since _start. */
+    private long _keys;
+
+    /** Offset in _file of the next byte to read. */
+    private long _position;
+
+}
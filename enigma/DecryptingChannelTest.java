@@ -0,0 +1,90 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the DecryptingChannel class.
+ *  @author Matthew Jihoon Lee
+ */
+public class DecryptingChannelTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Settings for the start of the ciphertext. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    @Test
+    public void testRandomAccess() throws IOException {
+        Random random = new Random(61);
+        char[] plain = new char[50000];
+        for (int i = 0; i < plain.length; i += 1) {
+            plain[i] = UPPER.toChar(random.nextInt(UPPER.size()));
+        }
+        Machine machine = navalMachine();
+        Main.setUp(machine, SETTINGS);
+        String cipher = machine.convert(new String(plain));
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(),
+                    cipher.getBytes(StandardCharsets.ISO_8859_1));
+
+        try (DecryptingChannel channel =
+             DecryptingChannel.open(navalMachine(), SETTINGS,
+                                    file.toPath())) {
+            assertEquals(plain.length, channel.size());
+            for (int trial = 0; trial < 100; trial += 1) {
+                int start = random.nextInt(plain.length);
+                ByteBuffer buf = ByteBuffer.allocate(random.nextInt(200));
+                channel.position(start);
+                int expected = Math.min(buf.capacity(),
+                                        plain.length - start);
+                int n = 0;
+                while (n < expected) {
+                    n += channel.read(buf);
+                }
+                assertEquals(start + n, channel.position());
+                assertEquals(new String(plain, start, n),
+                             new String(buf.array(), 0, n,
+                                        StandardCharsets.ISO_8859_1));
+            }
+            channel.position(plain.length);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void testDecryptError() throws IOException {
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(),
+                    "ABC\u00ffDEF".getBytes(StandardCharsets.ISO_8859_1));
+        try (DecryptingChannel channel =
+             DecryptingChannel.open(navalMachine(), SETTINGS,
+                                    file.toPath())) {
+            ByteBuffer buf = ByteBuffer.allocate(10);
+            buf.position(2);
+            try {
+                channel.read(buf);
+                fail("undecryptable byte accepted");
+            } catch (IOException excp) {
+                assertEquals(2, buf.position());
+                assertEquals(0, channel.position());
+            }
+        }
+    }
+
+}
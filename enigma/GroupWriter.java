@@ -0,0 +1,99 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/** Writes converted messages in groups of five characters (except that
+ *  the last group of a line may have fewer), one output line for each
+ *  message line.  Output is staged in a fixed buffer, so memory use does
+ *  not depend on the length of a line.
+ *  @author Matthew Jihoon Lee
+ */
+class GroupWriter {
+
+    /** A GroupWriter sending its output to OUT. */
+    GroupWriter(Writer out) {
+        this(out, BUFFER_SIZE);
+    }
+
+    /** A GroupWriter sending its output to OUT, staging up to SIZE
+     *  characters at a time, where SIZE is at least 2 more than the
+     *  length of a line terminator. */
+    GroupWriter(Writer out, int size) {
+        _out = out;
+        _buf = new char[size];
+    }
+
+    /** Append the LEN characters BUF[OFF .. OFF+LEN-1] to the current
+     *  line.  None of them may be whitespace. */
+    void write(char[] buf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i += 1) {
+            if (_count + 2 > _buf.length) {
+                drain();
+            }
+            if (_group == GROUP_SIZE) {
+                _buf[_count] = ' ';
+                _count += 1;
+                _group = 0;
+            }
+            _buf[_count] = buf[i];
+            _count += 1;
+            _group += 1;
+        }
+    }
+
+    /** End the current line. */
+    void endLine() throws IOException {
+        if (_count + LINE_END.length() > _buf.length) {
+            drain();
+        }
+        LINE_END.getChars(0, LINE_END.length(), _buf, _count);
+        _count += LINE_END.length();
+        _group = 0;
+        _lines += 1;
+    }
+
+    /** Return the number of lines I have ended. */
+    long lines() {
+        return _lines;
+    }
+
+    /** Write out all staged output and flush the underlying Writer. */
+    void flush() throws IOException {
+        drain();
+        _out.flush();
+    }
+
+    /** Write out all staged output. */
+    private void drain() throws IOException {
+        _out.write(_buf, 0, _count);
+        _count = 0;
+    }
+
+    /** Number of characters in a group. */
+    static final int GROUP_SIZE = 5;
+
+    /** Default number of characters staged. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Terminator written at the end of each line. */
+    private static final String LINE_END = System.lineSeparator();
+
+    /** Destination of my output. */
+    private final Writer _out;
+
+    /** Staged output. */
+    private final char[] _buf;
+
+    /** Number of characters staged in _buf. */
+    private int _count;
+
+    /** Number of message characters in the current group of the current
+     *  line, which is kept rather than the length of the line so that
+     *  lines of any length are grouped correctly. */
+    private int _group;
+
+    /** Number of lines ended. */
+    private long _lines;
+
+}
@@ -0,0 +1,417 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for rotor settings.  Every rotor order and
+ *  setting of the rotors is tried with an empty plugboard, and the
+ *  decryptions are ranked by their index of coincidence: the chance
+ *  that two letters drawn from one are the same, which is higher for
+ *  natural language than for random text, and survives a plugboard with
+ *  few pairs well enough to pick out the rotors.
+ *
+ *  The settings are tried in blocks with KeyTrials, on the threads of a
+ *  ForkJoinPool, and the best are kept in a bounded heap.  Since the
+ *  index of coincidence of a decryption is at most what it would be if
+ *  all its remaining letters matched its commonest one so far, a
+ *  decryption is abandoned as soon as that bound falls to the worst of
+ *  the best kept, which can happen only near its end.  Progress is
+ *  reported as the search goes, and it may be cancelled, keeping the
+ *  best found so far.
+ *  @author Matthew Jihoon Lee
+ */
+class IocSearch {
+
+    /** Receives reports of the progress of a search. */
+    interface Progress {
+        /** Report that DONE of TOTAL settings have been tried.  Called
+         *  from the searching threads. */
+        void update(long done, long total);
+    }
+
+    /** A setting found by the search. */
+    static final class Candidate {
+
+        /** The candidate with settings line LINE whose decryption has
+         *  index of coincidence IOC. */
+        Candidate(String line, double ioc) {
+            _line = line;
+            _ioc = ioc;
+        }
+
+        /** Return the settings line. */
+        String line() {
+            return _line;
+        }
+
+        /** Return the index of coincidence of the decryption. */
+        double ioc() {
+            return _ioc;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.5f  %s", _ioc, _line);
+        }
+
+        /** Settings line. */
+        private final String _line;
+
+        /** Index of coincidence. */
+        private final double _ioc;
+    }
+
+    /** A search for the settings of machines configured as MACHINE
+     *  under which CIPHERTEXT decrypts to likely plaintext, keeping the
+     *  best TOP.  Whitespace in CIPHERTEXT is ignored. */
+    IocSearch(Machine machine, String ciphertext, int top) {
+        _machine = machine;
+        _size = machine.alphabet().size();
+        _cipher = Bombe.letters(machine.alphabet(), ciphertext);
+        _top = top;
+        if (_cipher.length < 2) {
+            throw error("ciphertext too short");
+        } else if (top < 1) {
+            throw error("must keep at least one candidate");
+        }
+        _plugboard = machine.plugboard("");
+        _workers = ThreadLocal.withInitial(Worker::new);
+    }
+
+    /** Return the best candidates among every setting of every rotor
+     *  order in ORDERS, best first, using THREADS threads and reporting
+     *  to PROGRESS (unless it is null). */
+    List<Candidate> run(List<Rotor[]> orders, int threads,
+                        Progress progress) {
+        long perLeaf = 1;
+        for (int i = 2; i < _machine.numRotors(); i += 1) {
+            perLeaf *= _size;
+        }
+        _heap.clear();
+        _threshold = -1;
+        _done.set(0);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new Sweep(orders, 0, orders.size() * _size,
+                                  perLeaf, progress));
+        } finally {
+            pool.shutdown();
+            _cancelled = false;
+        }
+        ArrayList<Entry> best;
+        synchronized (_heap) {
+            best = new ArrayList<>(_heap);
+        }
+        best.sort((x, y) -> x.sum != y.sum ? Long.compare(y.sum, x.sum)
+                  : x.line.compareTo(y.line));
+        double pairs = (double) _cipher.length * (_cipher.length - 1);
+        ArrayList<Candidate> result = new ArrayList<>();
+        for (Entry entry : best) {
+            result.add(new Candidate(entry.line, entry.sum / pairs));
+        }
+        return result;
+    }
+
+    /** Make the current search, or the next if none is running, end as
+     *  soon as possible, with the best candidates found so far.  Later
+     *  searches are not affected. */
+    void cancel() {
+        _cancelled = true;
+    }
+
+    /** Tries the settings of a range of rotor orders and settings of the
+     *  leftmost rotor after the reflector, splitting the range among the
+     *  threads of the pool. */
+    private class Sweep extends RecursiveAction {
+
+        /** Tries leaves LO .. HI-1, where leaf K is the rotor order
+         *  ORDERS[K / alphabet size] with the leftmost rotor after the
+         *  reflector at setting K % alphabet size, each with PERLEAF
+         *  settings, reporting to PROGRESS. */
+        Sweep(List<Rotor[]> orders, int lo, int hi, long perLeaf,
+              Progress progress) {
+            _orders = orders;
+            _lo = lo;
+            _hi = hi;
+            _perLeaf = perLeaf;
+            _progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Sweep(_orders, _lo, mid, _perLeaf, _progress),
+                          new Sweep(_orders, mid, _hi, _perLeaf, _progress));
+            } else if (_hi > _lo && !_cancelled) {
+                _workers.get().sweep(_orders.get(_lo / _size), _lo % _size);
+                long done = _done.addAndGet(_perLeaf);
+                if (_progress != null) {
+                    _progress.update(done, _orders.size() * _size * _perLeaf);
+                }
+            }
+        }
+
+        /** Rotor orders tried. */
+        private final List<Rotor[]> _orders;
+
+        /** Range of leaves tried. */
+        private final int _lo, _hi;
+
+        /** Number of settings in each leaf. */
+        private final long _perLeaf;
+
+        /** Receives progress reports, or null. */
+        private final Progress _progress;
+    }
+
+    /** One thread's trials, with the counts of letters in the
+     *  decryptions it has under way. */
+    private class Worker implements KeyTrials.Scorer, KeyTrials.Pruner {
+
+        /** Try every setting of ORDER with the leftmost rotor after the
+         *  reflector at setting FIRST. */
+        void sweep(Rotor[] order, int first) {
+            _trials.clear();
+            int o = _trials.order(order);
+            int board = _trials.plugboard(_plugboard);
+            int[] setting = new int[order.length - 1];
+            setting[0] = first;
+            while (true) {
+                _trials.add(o, setting, board);
+                int i = setting.length - 1;
+                for (; i > 0 && setting[i] == _size - 1; i -= 1) {
+                    setting[i] = 0;
+                }
+                if (i <= 0) {
+                    break;
+                }
+                setting[i] += 1;
+            }
+            _order = order;
+            Arrays.fill(_counting, -1);
+            _trials.run(_cipher, this, this, PRUNE_INTERVAL);
+        }
+
+        @Override
+        public void score(int candidate, int[] text, int start,
+                          int length) {
+            int[] tally = _tally;
+            Arrays.fill(tally, 0);
+            long sum = 0;
+            for (int j = start; j < start + length; j += 1) {
+                sum += 2 * tally[text[j]];
+                tally[text[j]] += 1;
+            }
+            if (sum > _threshold) {
+                offer(sum, candidate);
+            }
+        }
+
+        @Override
+        public boolean keep(int lane, int candidate, int[] text, int start,
+                            int done) {
+            if (_cancelled) {
+                return false;
+            }
+            long rest = _cipher.length - done;
+            if (rest * (rest - 1) > _threshold) {
+                return true;
+            }
+            int n = _size, from = _seen[lane], base = lane * n;
+            if (_counting[lane] != candidate) {
+                _counting[lane] = candidate;
+                Arrays.fill(_counts, base, base + n, 0);
+                _sums[lane] = 0;
+                _most[lane] = 0;
+                from = 0;
+            }
+            long sum = _sums[lane];
+            int most = _most[lane];
+            for (int j = start + from; j < start + done; j += 1) {
+                int f = _counts[base + text[j]];
+                sum += 2 * f;
+                _counts[base + text[j]] = f + 1;
+                most = Math.max(most, f + 1);
+            }
+            _sums[lane] = sum;
+            _most[lane] = most;
+            _seen[lane] = done;
+            long bound = sum + (most + rest) * (most + rest - 1)
+                - (long) most * (most - 1);
+            return bound > _threshold;
+        }
+
+        /** Add CANDIDATE, whose decryption has SUM ordered pairs of equal
+         *  letters, to the best found if it is good enough. */
+        private void offer(long sum, int candidate) {
+            synchronized (_heap) {
+                if (_heap.size() == _top) {
+                    if (sum <= _heap.peek().sum) {
+                        return;
+                    }
+                    _heap.poll();
+                }
+                StringBuilder line = new StringBuilder("*");
+                for (Rotor r : _order) {
+                    line.append(' ').append(r.name());
+                }
+                line.append(' ').append(_trials.setting(candidate));
+                _heap.add(new Entry(sum, line.toString()));
+                if (_heap.size() == _top) {
+                    _threshold = _heap.peek().sum;
+                }
+            }
+        }
+
+        /** Trials of the current leaf. */
+        private final KeyTrials _trials = new KeyTrials(_machine);
+
+        /** The rotor order of the current leaf. */
+        private Rotor[] _order;
+
+        /** Counts of letters in a decryption being scored. */
+        private final int[] _tally = new int[_size];
+
+        /** _counts[L * alphabet size + C] is the number of letters C in
+         *  the decryption of lane L so far. */
+        private final int[] _counts = new int[KeyTrials.MAX_BLOCK * _size];
+
+        /** _sums[L] is the number of ordered pairs of equal letters in
+         *  the decryption of lane L so far. */
+        private final long[] _sums = new long[KeyTrials.MAX_BLOCK];
+
+        /** _most[L] is the largest count of one letter in lane L. */
+        private final int[] _most = new int[KeyTrials.MAX_BLOCK];
+
+        /** _seen[L] is the number of letters of lane L counted. */
+        private final int[] _seen = new int[KeyTrials.MAX_BLOCK];
+
+        /** _counting[L] is the candidate whose letters lane L counts, or
+         *  -1 if none. */
+        private final int[] _counting = new int[KeyTrials.MAX_BLOCK];
+    }
+
+    /** A candidate kept in the heap: its settings line, and the number
+     *  of ordered pairs of equal letters in its decryption, which orders
+     *  candidates as their indices of coincidence do. */
+    private static final class Entry implements Comparable<Entry> {
+
+        /** An entry for LINE with SUM pairs. */
+        Entry(long sum, String line) {
+            this.sum = sum;
+            this.line = line;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(sum, other.sum);
+        }
+
+        /** Number of ordered pairs of equal letters. */
+        final long sum;
+
+        /** Settings line. */
+        final String line;
+    }
+
+    /** Print on the standard output the best candidate settings for a
+     *  ciphertext, with their indices of coincidence.  ARGS are the name
+     *  of a configuration file, the name of a file holding the
+     *  ciphertext, and, optionally, the number of candidates to keep
+     *  (default 10) and the number of threads.  Progress is reported on
+     *  the standard error.  If interrupted, the search stops and prints
+     *  the best found so far. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 2 || args.length > 4) {
+            throw error("Only 2 to 4 command-line arguments allowed");
+        }
+        Machine machine =
+            Config.load(new String(Files.readAllBytes(Paths.get(args[0]))),
+                        null).newMachine();
+        String ciphertext =
+            new String(Files.readAllBytes(Paths.get(args[1])));
+        int top = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TOP;
+        int threads = args.length > 3 ? Integer.parseInt(args[3])
+            : Runtime.getRuntime().availableProcessors();
+        IocSearch search = new IocSearch(machine, ciphertext, top);
+        CountDownLatch printed = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            search.cancel();
+            try {
+                printed.await();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        long[] reported = new long[1];
+        try {
+            List<Candidate> best =
+                search.run(Bombe.orders(machine), threads, (done, total) -> {
+                    synchronized (reported) {
+                        long percent = done * 100 / total;
+                        if (percent > reported[0]) {
+                            reported[0] = percent;
+                            System.err.printf("%d%% of %d settings%n",
+                                              percent, total);
+                        }
+                    }
+                });
+            for (Candidate candidate : best) {
+                System.out.println(candidate);
+            }
+            System.out.flush();
+        } finally {
+            printed.countDown();
+        }
+    }
+
+    /** Default number of candidates kept by main. */
+    static final int DEFAULT_TOP = 10;
+
+    /** Number of characters decrypted between checks of the bound. */
+    private static final int PRUNE_INTERVAL = 16;
+
+    /** Machine giving my configuration and available rotors. */
+    private final Machine _machine;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** The ciphertext, as indices in the alphabet. */
+    private final int[] _cipher;
+
+    /** Number of candidates kept. */
+    private final int _top;
+
+    /** The empty plugboard. */
+    private final Permutation _plugboard;
+
+    /** Each thread's Worker. */
+    private final ThreadLocal<Worker> _workers;
+
+    /** The best candidates found so far, worst first. */
+    private final PriorityQueue<Entry> _heap = new PriorityQueue<>();
+
+    /** The number of pairs of the worst candidate kept, once _top are
+     *  kept, and -1 until then. */
+    private volatile long _threshold;
+
+    /** Number of settings tried. */
+    private final AtomicLong _done = new AtomicLong();
+
+    /** True iff the current or next search has been cancelled. */
+    private volatile boolean _cancelled;
+
+}
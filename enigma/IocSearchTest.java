@@ -0,0 +1,173 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the IocSearch class.
+ *  @author Matthew Jihoon Lee
+ */
+public class IocSearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A key used in the tests. */
+    private static final String KEY = "* C III I IV KDQ";
+
+    /** Plaintext encrypted with KEY in the tests. */
+    private static final String PLAIN =
+        "ALICEWASBEGINNINGTOGETVERYTIREDOFSITTINGBYHERSISTERONTHEBANK"
+        + "ANDOFHAVINGNOTHINGTODOONCEORTWICESHEHADPEEPEDINTOTHEBOOKHER"
+        + "SISTERWASREADINGBUTITHADNOPICTURESORCONVERSATIONSINITANDWHAT"
+        + "ISTHEUSEOFABOOKTHOUGHTALICEWITHOUTPICTURESORCONVERSATIONSO"
+        + "SHEWASCONSIDERINGINHEROWNMINDASWELLASSHECOULDFORTHEHOTDAY"
+        + "MADEHERFEELVERYSLEEPYANDSTUPID";
+
+    /** Return the ciphertext of PLAIN under KEY. */
+    private String ciphertext() {
+        Machine machine = fourSlotMachine();
+        Main.setUp(machine, KEY);
+        return machine.convert(PLAIN);
+    }
+
+    /** Return the rotor orders of MACHINE named by each of NAMES. */
+    private List<Rotor[]> orders(Machine machine, String... names) {
+        ArrayList<Rotor[]> result = new ArrayList<>();
+        for (String line : names) {
+            for (Rotor[] order : Bombe.orders(machine)) {
+                StringBuilder name = new StringBuilder();
+                for (Rotor r : order) {
+                    name.append(name.length() == 0 ? "" : " ")
+                        .append(r.name());
+                }
+                if (name.toString().equals(line)) {
+                    result.add(order);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of ordered pairs of equal letters in TEXT[START
+     *  .. START+LENGTH-1]. */
+    private static long pairs(int[] text, int start, int length) {
+        int[] counts = new int[UPPER.size()];
+        long result = 0;
+        for (int j = start; j < start + length; j += 1) {
+            result += 2 * counts[text[j]];
+            counts[text[j]] += 1;
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testFindsKey() {
+        Machine machine = fourSlotMachine();
+        IocSearch search = new IocSearch(machine, ciphertext(), 3);
+        List<IocSearch.Candidate> best =
+            search.run(orders(machine, "C III I IV", "B III I IV",
+                              "C I III IV"), 2, null);
+        assertEquals(3, best.size());
+        assertEquals(KEY, best.get(0).line());
+        assertTrue(best.get(0).ioc() > 0.055);
+        assertTrue(best.get(0).ioc() > best.get(1).ioc());
+        Machine check = fourSlotMachine();
+        Main.setUp(check, best.get(0).line());
+        assertEquals(PLAIN, check.convert(ciphertext()));
+    }
+
+    @Test
+    public void testSameAsExhaustive() {
+        Machine machine = fourSlotMachine();
+        String ciphertext = ciphertext().substring(0, 120);
+        List<Rotor[]> orders = orders(machine, "B I II III", "C IV II I");
+        int top = 20;
+        IocSearch search = new IocSearch(machine, ciphertext, top);
+        List<IocSearch.Candidate> best = search.run(orders, 3, null);
+        assertEquals(top, best.size());
+
+        int[] cipher = Bombe.letters(UPPER, ciphertext);
+        KeyTrials trials = new KeyTrials(machine);
+        int board = trials.plugboard(machine.plugboard(""));
+        for (Rotor[] order : orders) {
+            int o = trials.order(order);
+            for (int p = 0; p < UPPER.size() * UPPER.size() * UPPER.size();
+                 p += 1) {
+                trials.add(o, new int[] { p / 676, p / 26 % 26, p % 26 },
+                           board);
+            }
+        }
+        long[] all = new long[trials.size()];
+        trials.run(cipher, (candidate, text, start, length) ->
+            all[candidate] = pairs(text, start, length));
+        Arrays.sort(all);
+        double total = (double) cipher.length * (cipher.length - 1);
+        for (int i = 0; i < top; i += 1) {
+            assertEquals(all[all.length - 1 - i] / total, best.get(i).ioc(),
+                         1e-12);
+        }
+        for (IocSearch.Candidate candidate : best) {
+            Machine check = fourSlotMachine();
+            Main.setUp(check, candidate.line());
+            int[] text = Bombe.letters(UPPER, check.convert(ciphertext));
+            assertEquals(pairs(text, 0, text.length) / total,
+                         candidate.ioc(), 1e-12);
+        }
+    }
+
+    @Test
+    public void testCancel() {
+        Machine machine = fourSlotMachine();
+        IocSearch search = new IocSearch(machine, ciphertext(), 5);
+        long[] reported = new long[2];
+        List<IocSearch.Candidate> best =
+            search.run(Bombe.orders(machine), 1, (done, total) -> {
+                reported[0] = done;
+                reported[1] = total;
+                search.cancel();
+            });
+        assertTrue(best.size() <= 5);
+        assertEquals(48L * 26 * 26 * 26, reported[1]);
+        assertEquals(26 * 26, reported[0]);
+        best = search.run(orders(machine, "C III I IV"), 1, null);
+        assertEquals(5, best.size());
+        assertEquals(KEY, best.get(0).line());
+    }
+
+    @Test
+    public void testErrors() {
+        Machine machine = fourSlotMachine();
+        try {
+            new IocSearch(machine, "A", 10);
+            fail("one letter accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            new IocSearch(machine, "ABCDE", 0);
+            fail("no candidates kept");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            new IocSearch(machine, "AB1DE", 10);
+            fail("bad ciphertext accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}
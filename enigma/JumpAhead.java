@@ -0,0 +1,186 @@
+package enigma;
+
+/** Computes where the rotors of a Machine will be after any number of
+ *  keypresses directly from Machine's stepping rules, in time that
+ *  depends on the number of rotors and the alphabet size but not on the
+ *  number of keypresses.
+ *
+ *  The rightmost rotor leaves its position on every keypress.  Any
+ *  other moving rotor leaves a position either when pushed by its right
+ *  neighbor's notch or, if its left neighbor moves too, on the keypress
+ *  after it reaches one of its own notches (the double step).  Provided
+ *  no such rotor has notches at two consecutive positions, those two
+ *  causes never coincide once the machine has made one keypress, so the
+ *  keypress on which each rotor leaves each position can be found by
+ *  counting notches from the right.
+ *  @author Matthew Jihoon Lee
+ */
+class JumpAhead {
+
+    /** Return true iff JumpAhead can be used for ROTORS: none of them
+     *  that both pushes and is pushed has notches at adjacent
+     *  positions. */
+    static boolean applies(Rotor[] rotors) {
+        for (int i = 1; i < rotors.length; i += 1) {
+            Rotor r = rotors[i];
+            if (r.rotates() && rotors[i - 1].rotates()) {
+                for (int p = 0; p < r.size(); p += 1) {
+                    if (r.notchAt(p) && r.notchAt((p + 1) % r.size())) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** A JumpAhead for ROTORS (the reflector first), for which applies()
+     *  is true, at settings POSNS.  POSNS must be the result of at least
+     *  one keypress. */
+    JumpAhead(Rotor[] rotors, int[] posns) {
+        _rotors = rotors;
+        _posns = posns;
+        _size = rotors[0].size();
+        _notches = new int[rotors.length][];
+        _clear = new int[rotors.length][];
+        for (int i = 0; i < rotors.length; i += 1) {
+            int n = 0;
+            for (int b = 0; b < _size; b += 1) {
+                n += rotors[i].notchAt((posns[i] + b) % _size) ? 1 : 0;
+            }
+            _notches[i] = new int[n];
+            _clear[i] = new int[_size - n];
+            int k = 0, m = 0;
+            for (int b = 0; b < _size; b += 1) {
+                if (rotors[i].notchAt((posns[i] + b) % _size)) {
+                    _notches[i][k] = b;
+                    k += 1;
+                } else {
+                    _clear[i][m] = b;
+                    m += 1;
+                }
+            }
+        }
+    }
+
+    /** Return the settings of my rotors after N further keypresses. */
+    int[] after(long n) {
+        int last = _rotors.length - 1;
+        int[] result = _posns.clone();
+        long moves = 0;
+        for (int i = last; i >= 0; i -= 1) {
+            if (!_rotors[i].rotates()) {
+                moves = 0;
+            } else if (i == last) {
+                moves = n;
+            } else {
+                long pushes =
+                    _rotors[i + 1].rotates() ? notchesBefore(i + 1, moves) : 0;
+                if (!selfStepping(i)) {
+                    moves = pushes;
+                } else {
+                    moves = pushes == 0 ? 0 : add(nth(_clear[i], pushes), 1);
+                    if (isNotch(i, moves) && leaves(i, moves) < n) {
+                        moves = add(moves, 1);
+                    }
+                }
+            }
+            result[i] = (int) ((_posns[i] + moves % _size) % _size);
+        }
+        return result;
+    }
+
+    /** Return the keypress (counting from 0) on which rotor I leaves the
+     *  position OFFSET places past its current one, or Long.MAX_VALUE if
+     *  it never does. */
+    private long leaves(int i, long offset) {
+        if (offset == INFINITE || !_rotors[i].rotates()) {
+            return INFINITE;
+        } else if (i == _rotors.length - 1) {
+            return offset;
+        } else if (selfStepping(i) && isNotch(i, offset)) {
+            return offset == 0 ? 0 : add(leaves(i, offset - 1), 1);
+        } else if (!_rotors[i + 1].rotates()) {
+            return INFINITE;
+        }
+        long push = selfStepping(i) ? clearBefore(i, add(offset, 1))
+            : add(offset, 1);
+        return leaves(i + 1, nth(_notches[i + 1], push));
+    }
+
+    /** Return true iff rotor I advances itself on reaching a notch. */
+    private boolean selfStepping(int i) {
+        return i > 0 && _rotors[i - 1].rotates() && _rotors[i].rotates();
+    }
+
+    /** Return true iff the position OFFSET places past the current
+     *  position of rotor I is a notch. */
+    private boolean isNotch(int i, long offset) {
+        return offset != INFINITE
+            && _rotors[i].notchAt((int) ((_posns[i] + offset % _size)
+                                         % _size));
+    }
+
+    /** Return the number of notches among the first OFFSETS positions of
+     *  rotor I, starting from its current one. */
+    private long notchesBefore(int i, long offsets) {
+        return countBefore(_notches[i], offsets);
+    }
+
+    /** Return the number of positions without a notch among the first
+     *  OFFSETS positions of rotor I, starting from its current one. */
+    private long clearBefore(int i, long offsets) {
+        return countBefore(_clear[i], offsets);
+    }
+
+    /** Return the number of offsets less than LIMIT that are congruent
+     *  modulo _size to members of the ascending list OFFSETS. */
+    private long countBefore(int[] offsets, long limit) {
+        long count = limit / _size * offsets.length;
+        for (int b : offsets) {
+            if (b < limit % _size) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Return the K-th (from 1) smallest offset congruent modulo _size to
+     *  a member of the ascending list OFFSETS, or INFINITE. */
+    private long nth(int[] offsets, long k) {
+        if (offsets.length == 0 || k == INFINITE) {
+            return INFINITE;
+        }
+        long cycles = (k - 1) / offsets.length;
+        if (cycles > (INFINITE - _size) / _size) {
+            return INFINITE;
+        }
+        return cycles * _size + offsets[(int) ((k - 1) % offsets.length)];
+    }
+
+    /** Return X + Y, or INFINITE if that overflows. */
+    private static long add(long x, long y) {
+        long sum = x + y;
+        return sum < x ? INFINITE : sum;
+    }
+
+    /** Stands for a keypress or offset that is never reached. */
+    private static final long INFINITE = Long.MAX_VALUE;
+
+    /** The rotors, reflector first. */
+    private final Rotor[] _rotors;
+
+    /** The starting settings of _rotors. */
+    private final int[] _posns;
+
+    /** The common alphabet size of _rotors. */
+    private final int _size;
+
+    /** _notches[I] lists, in ascending order, the offsets from the
+     *  starting setting of rotor I, less than _size, of its notches. */
+    private final int[][] _notches;
+
+    /** _clear[I] lists, in ascending order, the other offsets. */
+    private final int[][] _clear;
+
+}
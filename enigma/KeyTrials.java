@@ -0,0 +1,442 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** A set of candidate keys, tried together against one ciphertext.  Each
+ *  candidate is a rotor order, a setting for each rotor, and a plugboard,
+ *  and is held in primitive arrays indexed by candidate: one array of
+ *  rotor order numbers, one of settings per rotor slot, and one of
+ *  plugboard numbers, with the orders and plugboards themselves kept
+ *  once each in tables.  Candidates are tried in blocks, each loaded into
+ *  Lanes and converted in lockstep, and the block size is chosen so that
+ *  a block's states and decryptions stay in cache.  Each decryption is
+ *  passed to a Scorer in a buffer that is reused, so that trying keys
+ *  allocates nothing.
+ *  @author Matthew Jihoon Lee
+ */
+class KeyTrials {
+
+    /** Judges the decryption of the ciphertext under one candidate. */
+    interface Scorer {
+        /** Score TEXT[START .. START+LENGTH-1] (indices in the alphabet),
+         *  the decryption of the ciphertext under candidate CANDIDATE.
+         *  TEXT is reused once this returns, so must not be kept. */
+        void score(int candidate, int[] text, int start, int length);
+    }
+
+    /** Decides, part of the way through decrypting the ciphertext under
+     *  a candidate, whether to finish. */
+    interface Pruner {
+        /** Return false if candidate CANDIDATE, whose decryption so far is
+         *  TEXT[START .. START+DONE-1], should be abandoned.  Candidates
+         *  decrypted together have different LANEs, each less than the
+         *  most candidates tried at once, and the calls about one
+         *  candidate have the same LANE and increasing DONE. */
+        boolean keep(int lane, int candidate, int[] text, int start,
+                     int done);
+    }
+
+    /** Candidates for machines configured as MACHINE, whose rotors and
+     *  plugboards they may use. */
+    KeyTrials(Machine machine) {
+        this(machine, MAX_BLOCK);
+    }
+
+    /** As for KeyTrials(MACHINE), but trying at most BLOCK candidates at
+     *  once. */
+    KeyTrials(Machine machine, int block) {
+        _machine = machine;
+        _size = machine.alphabet().size();
+        _slots = machine.numRotors();
+        _maxBlock = block;
+        _posn = new int[_slots][INITIAL_CAPACITY];
+        _order = new int[INITIAL_CAPACITY];
+        _board = new int[INITIAL_CAPACITY];
+    }
+
+    /** Return the number of the rotor order given by the rotor names
+     *  NAMES, as in a settings line, adding the order if needed. */
+    int order(String... names) {
+        if (names.length != _slots) {
+            throw error("The rotors are not named correctly!");
+        }
+        Rotor[] rotors = new Rotor[_slots];
+        for (int i = 0; i < _slots; i += 1) {
+            rotors[i] = _machine.rotorNamed(names[i]);
+        }
+        return order(rotors);
+    }
+
+    /** Return the number of the rotor order ROTORS, whose first rotor is
+     *  the reflector, adding the order if needed.  ROTORS must be valid
+     *  for my machine. */
+    int order(Rotor[] rotors) {
+        List<Rotor> key = Arrays.asList(rotors.clone());
+        Integer result = _orderNumbers.get(key);
+        if (result != null) {
+            return result;
+        }
+        if (rotors.length != _slots) {
+            throw error("The rotors are not named correctly!");
+        }
+        if (!rotors[0].reflecting()) {
+            throw error("First rotor should reflect");
+        }
+        int moving = 0;
+        for (int i = 0; i < _slots; i += 1) {
+            if (_machine.rotorNamed(rotors[i].name()) != rotors[i]) {
+                throw error("unknown rotor %s", rotors[i].name());
+            }
+            if (i > 0 && rotors[i].reflecting()) {
+                throw error("The reflector is not where it should be");
+            }
+            if (key.indexOf(rotors[i]) != i) {
+                throw error("Rotor cannot be used again!");
+            }
+            moving += rotors[i].rotates() ? 1 : 0;
+        }
+        if (moving != _machine.numPawls()) {
+            throw error("Amount of moving rotors wrong!");
+        }
+        int k = _orders.size();
+        _orders.add(key.toArray(new Rotor[0]));
+        _orderNumbers.put(key, k);
+        _lanes = null;
+        return k;
+    }
+
+    /** Return the number of the plugboard given by CYCLES, as in a
+     *  settings line, adding it if needed. */
+    int plugboard(String cycles) {
+        return plugboard(_machine.plugboard(cycles));
+    }
+
+    /** Return the number of PLUGBOARD, adding it if needed. */
+    int plugboard(Permutation plugboard) {
+        Integer result = _boardNumbers.get(plugboard);
+        if (result != null) {
+            return result;
+        }
+        int k = _plugboards.size();
+        _plugboards.add(plugboard);
+        _boardNumbers.put(plugboard, k);
+        _lanes = null;
+        return k;
+    }
+
+    /** Add the candidate with the rotor order numbered ORDER, the
+     *  plugboard numbered BOARD, and the rotors after the reflector at
+     *  the settings in SETTING, as in a settings line, returning its
+     *  number. */
+    int add(int order, String setting, int board) {
+        if (setting.length() != _slots - 1) {
+            throw error("setting is incorrect");
+        }
+        int k = add(order, board);
+        for (int i = 1; i < _slots; i += 1) {
+            _posn[i][k] = _machine.alphabet().toInt(setting.charAt(i - 1));
+        }
+        return k;
+    }
+
+    /** Add the candidate with the rotor order numbered ORDER, the
+     *  plugboard numbered BOARD, and the rotor in each slot I after the
+     *  reflector at setting SETTINGS[I - 1], returning its number. */
+    int add(int order, int[] settings, int board) {
+        if (settings.length != _slots - 1) {
+            throw error("setting is incorrect");
+        }
+        for (int p : settings) {
+            if (p < 0 || p >= _size) {
+                throw error("setting is incorrect");
+            }
+        }
+        int k = add(order, board);
+        for (int i = 1; i < _slots; i += 1) {
+            _posn[i][k] = settings[i - 1];
+        }
+        return k;
+    }
+
+    /** Add a candidate with rotor order ORDER and plugboard BOARD, with
+     *  all rotors at setting 0, returning its number. */
+    private int add(int order, int board) {
+        if (order < 0 || order >= _orders.size()
+            || board < 0 || board >= _plugboards.size()) {
+            throw error("no such rotor order or plugboard");
+        }
+        int k = _count;
+        if (k == _order.length) {
+            int capacity = 2 * k;
+            _order = Arrays.copyOf(_order, capacity);
+            _board = Arrays.copyOf(_board, capacity);
+            for (int i = 0; i < _slots; i += 1) {
+                _posn[i] = Arrays.copyOf(_posn[i], capacity);
+            }
+        }
+        _order[k] = order;
+        _board[k] = board;
+        for (int i = 0; i < _slots; i += 1) {
+            _posn[i][k] = 0;
+        }
+        _count += 1;
+        return k;
+    }
+
+    /** Return the number of candidates. */
+    int size() {
+        return _count;
+    }
+
+    /** Remove all candidates, keeping the rotor orders and plugboards. */
+    void clear() {
+        _count = 0;
+    }
+
+    /** Set MACHINE, which must be configured as mine, to the key of
+     *  CANDIDATE. */
+    void setUp(int candidate, Machine machine) {
+        machine.insertRotors(_orders.get(_order[candidate]));
+        machine.setRotors(setting(candidate));
+        machine.setPlugboard(_plugboards.get(_board[candidate]));
+    }
+
+    /** Return the settings of the rotors after the reflector in
+     *  CANDIDATE, as in a settings line. */
+    String setting(int candidate) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 1; i < _slots; i += 1) {
+            result.append(_machine.alphabet().toChar(_posn[i][candidate]));
+        }
+        return result.toString();
+    }
+
+    /** Decrypt CIPHERTEXT (indices in the alphabet) under every candidate
+     *  in turn, passing each decryption to SCORER. */
+    void run(int[] ciphertext, Scorer scorer) {
+        run(ciphertext, scorer, null, 0);
+    }
+
+    /** As for run(CIPHERTEXT, SCORER), but consulting PRUNER (unless it
+     *  is null) about each candidate after every INTERVAL characters,
+     *  and neither finishing nor scoring the candidates it abandons.  A
+     *  block of candidates is left as soon as all are abandoned. */
+    void run(int[] ciphertext, Scorer scorer, Pruner pruner,
+             int interval) {
+        int len = ciphertext.length;
+        int block = Math.max(1, Math.min(_maxBlock, _count));
+        if (len > 0) {
+            block = Math.max(Math.min(block, MIN_BLOCK),
+                             Math.min(block, BLOCK_CHARS / len));
+        }
+        Lanes lanes = lanes(block);
+        if (_text.length < block * len) {
+            _text = new int[block * len];
+        }
+        if (_out.length < block) {
+            _out = new int[block];
+            _live = new boolean[block];
+        }
+        int[] text = _text, out = _out;
+        boolean[] live = _live;
+        for (int base = 0; base < _count; base += block) {
+            int n = Math.min(block, _count - base);
+            for (int k = 0; k < block; k += 1) {
+                load(lanes, k, k < n ? base + k : base);
+            }
+            Arrays.fill(live, true);
+            int alive = n;
+            for (int j = 0; j < len && alive > 0; j += 1) {
+                lanes.press(ciphertext[j], out);
+                for (int k = 0, t = j; k < n; k += 1, t += len) {
+                    text[t] = out[k];
+                }
+                if (pruner != null && (j + 1) % interval == 0
+                    && j + 1 < len) {
+                    for (int k = 0; k < n; k += 1) {
+                        if (live[k] && !pruner.keep(k, base + k, text,
+                                                    k * len, j + 1)) {
+                            live[k] = false;
+                            alive -= 1;
+                        }
+                    }
+                }
+            }
+            for (int k = 0; k < n; k += 1) {
+                if (live[k]) {
+                    scorer.score(base + k, text, k * len, len);
+                }
+            }
+        }
+    }
+
+    /** Set lane LANE of LANES to the key of CANDIDATE. */
+    private void load(Lanes lanes, int lane, int candidate) {
+        lanes.load(lane, _orderRotors[_order[candidate]],
+                   _boardNumber[_board[candidate]]);
+        for (int i = 1; i < _slots; i += 1) {
+            lanes.set(lane, i, _posn[i][candidate]);
+        }
+    }
+
+    /** Return Lanes with BLOCK lanes that know all my rotor orders and
+     *  plugboards. */
+    private Lanes lanes(int block) {
+        if (_lanes != null && _lanes.lanes() == block) {
+            return _lanes;
+        }
+        _lanes = new Lanes(_machine.alphabet(), _slots, block);
+        _orderRotors = new int[_orders.size()][_slots];
+        for (int r = 0; r < _orders.size(); r += 1) {
+            for (int i = 0; i < _slots; i += 1) {
+                _orderRotors[r][i] = _lanes.rotorNumber(_orders.get(r)[i]);
+            }
+        }
+        _boardNumber = new int[_plugboards.size()];
+        for (int b = 0; b < _plugboards.size(); b += 1) {
+            _boardNumber[b] = _lanes.plugboardNumber(_plugboards.get(b));
+        }
+        return _lanes;
+    }
+
+    /** Report on the standard output how many keys per second are tried
+     *  against a random ciphertext.  ARGS are the name of a configuration
+     *  file, a settings line giving the rotor order and plugboard, and,
+     *  optionally, the ciphertext length (default 100).  The candidates
+     *  are all settings of the rotors, up to a limit. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            throw error("Only 2 or 3 command-line arguments allowed");
+        }
+        Machine machine =
+            Config.load(new String(Files.readAllBytes(Paths.get(args[0]))),
+                        null).newMachine();
+        Main.setUp(machine, args[1].trim());
+        int len = args.length > 2 ? Integer.parseInt(args[2]) : BENCH_LENGTH;
+        KeyTrials trials = new KeyTrials(machine);
+        int order = trials.order(machine.retrieveRotors());
+        int board = trials.plugboard(machine.plugboard());
+        int size = machine.alphabet().size();
+        int[] setting = new int[machine.numRotors() - 1];
+        for (int n = 0; n < BENCH_KEYS; n += 1) {
+            trials.add(order, setting, board);
+            int i = setting.length - 1;
+            for (; i >= 0 && setting[i] == size - 1; i -= 1) {
+                setting[i] = 0;
+            }
+            if (i < 0) {
+                break;
+            }
+            setting[i] += 1;
+        }
+        Random random = new Random(len);
+        int[] ciphertext = new int[len];
+        for (int j = 0; j < len; j += 1) {
+            ciphertext[j] = random.nextInt(size);
+        }
+        long[] sum = new long[1];
+        Scorer scorer = (c, text, start, length) -> {
+            for (int j = start; j < start + length; j += 1) {
+                sum[0] += text[j];
+            }
+        };
+        trials.run(ciphertext, scorer);
+        long start = System.nanoTime();
+        trials.run(ciphertext, scorer);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d keys, %d characters: %.0f keys/s, "
+                          + "%.0f characters/s (checksum %d)%n",
+                          trials.size(), len, trials.size() / seconds,
+                          (double) trials.size() * len / seconds, sum[0]);
+    }
+
+    /** Default largest number of candidates tried at once. */
+    static final int MAX_BLOCK = 512;
+
+    /** Smallest number of candidates tried at once, however long the
+     *  ciphertext. */
+    private static final int MIN_BLOCK = 16;
+
+    /** Number of decrypted characters a block aims to hold. */
+    private static final int BLOCK_CHARS = 1 << 17;
+
+    /** Initial number of candidates with room allocated. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Most candidates tried by main. */
+    private static final int BENCH_KEYS = 1 << 20;
+
+    /** Default ciphertext length in main. */
+    private static final int BENCH_LENGTH = 100;
+
+    /** Machine giving my configuration and available rotors. */
+    private final Machine _machine;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Largest number of candidates tried at once. */
+    private final int _maxBlock;
+
+    /** The rotor orders, by number. */
+    private final ArrayList<Rotor[]> _orders = new ArrayList<>();
+
+    /** Numbers of the rotor orders. */
+    private final HashMap<List<Rotor>, Integer> _orderNumbers =
+        new HashMap<>();
+
+    /** The plugboards, by number. */
+    private final ArrayList<Permutation> _plugboards = new ArrayList<>();
+
+    /** Numbers of the plugboards. */
+    private final IdentityHashMap<Permutation, Integer> _boardNumbers =
+        new IdentityHashMap<>();
+
+    /** Number of candidates. */
+    private int _count;
+
+    /** _order[C] is the rotor order number of candidate C. */
+    private int[] _order;
+
+    /** _posn[I][C] is the setting of the rotor in slot I of candidate C
+     *  (always 0 for the reflector in slot 0). */
+    private final int[][] _posn;
+
+    /** _board[C] is the plugboard number of candidate C. */
+    private int[] _board;
+
+    /** Lanes used by the last run, or null if there are rotor orders or
+     *  plugboards they do not know. */
+    private Lanes _lanes;
+
+    /** _orderRotors[R][I] is the number in _lanes of the rotor in slot I
+     *  of rotor order R. */
+    private int[][] _orderRotors;
+
+    /** _boardNumber[B] is the number in _lanes of plugboard B. */
+    private int[] _boardNumber;
+
+    /** Decryptions of the current block, one after another. */
+    private int[] _text = new int[0];
+
+    /** Characters converted by each lane in one keypress. */
+    private int[] _out = new int[0];
+
+    /** Whether each candidate of the current block is still being
+     *  decrypted. */
+    private boolean[] _live = new boolean[0];
+
+}
@@ -0,0 +1,140 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeyTrials class.
+ *  @author Matthew Jihoon Lee
+ */
+public class KeyTrialsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a random ciphertext of LENGTH letters using RANDOM. */
+    private int[] ciphertext(Random random, int length) {
+        int[] result = new int[length];
+        for (int j = 0; j < length; j += 1) {
+            result[j] = random.nextInt(26);
+        }
+        return result;
+    }
+
+    /** Check that TRIALS decrypts a random ciphertext of LENGTH letters,
+     *  chosen using RANDOM, as MACHINE does, for every candidate. */
+    private void checkTrials(KeyTrials trials, Machine machine,
+                             Random random, int length) {
+        int[] msg = ciphertext(random, length);
+        List<int[]> texts = new ArrayList<>();
+        trials.run(msg, (c, text, start, len) -> {
+            assertEquals(texts.size(), c);
+            assertEquals(msg.length, len);
+            texts.add(Arrays.copyOfRange(text, start, start + len));
+        });
+        assertEquals(trials.size(), texts.size());
+        for (int c = 0; c < trials.size(); c += 1) {
+            trials.setUp(c, machine);
+            for (int j = 0; j < length; j += 1) {
+                assertEquals(machine.convert(msg[j]), texts.get(c)[j]);
+            }
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSameAsMachine() {
+        Random random = new Random(22);
+        Machine machine = fullNavalMachine();
+        KeyTrials trials = new KeyTrials(machine);
+        String[][] orders = {
+            {"B", "Beta", "III", "IV", "I"},
+            {"C", "Gamma", "VI", "VIII", "II"},
+            {"B", "Gamma", "V", "VII", "I"},
+        };
+        int[] numbers = new int[orders.length];
+        for (int r = 0; r < orders.length; r += 1) {
+            numbers[r] = trials.order(orders[r]);
+        }
+        assertEquals(numbers[1], trials.order(orders[1]));
+        int[] boards = {
+            trials.plugboard(""), trials.plugboard("(AQ) (EP)"),
+            trials.plugboard("(HQ) (EX) (IP) (TR) (BY)"),
+        };
+        int[] setting = new int[4];
+        for (int c = 0; c < 1000; c += 1) {
+            for (int i = 0; i < setting.length; i += 1) {
+                setting[i] = random.nextInt(26);
+            }
+            assertEquals(c, trials.add(numbers[random.nextInt(3)], setting,
+                                       boards[random.nextInt(3)]));
+        }
+        checkTrials(trials, machine, random, 150);
+        checkTrials(trials, machine, random, 2000);
+        trials.clear();
+        trials.add(numbers[0], "AXLE", boards[2]);
+        checkTrials(trials, machine, random, 30);
+    }
+
+    @Test
+    public void testSmallBlocks() {
+        Random random = new Random(23);
+        Machine machine = fullNavalMachine();
+        KeyTrials trials = new KeyTrials(machine, 7);
+        int order = trials.order("B", "Beta", "I", "II", "III");
+        int board = trials.plugboard("(AB) (CD)");
+        for (int c = 0; c < 30; c += 1) {
+            trials.add(order, new int[] {0, 0, 4, 20 + c % 6}, board);
+        }
+        checkTrials(trials, machine, random, 700);
+        checkTrials(trials, machine, random, 0);
+    }
+
+    @Test
+    public void testErrors() {
+        KeyTrials trials = new KeyTrials(fullNavalMachine());
+        String[][] orders = {
+            {"Beta", "B", "III", "IV", "I"},
+            {"B", "Beta", "III", "III", "I"},
+            {"B", "Beta", "Gamma", "IV", "I"},
+            {"B", "Beta", "III", "IV"},
+            {"B", "Beta", "III", "IV", "X"},
+        };
+        for (String[] order : orders) {
+            try {
+                trials.order(order);
+                fail("accepted " + Arrays.toString(order));
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+        int order = trials.order("B", "Beta", "III", "IV", "I");
+        int board = trials.plugboard("");
+        try {
+            trials.add(order, new int[] {0, 0, 26, 0}, board);
+            fail("accepted a setting outside the alphabet");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            trials.add(order + 1, "AAAA", board);
+            fail("accepted an unknown order");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        assertEquals(0, trials.size());
+    }
+
+}
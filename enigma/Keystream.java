@@ -0,0 +1,162 @@
+package enigma;
+
+/** The complete sequence of permutations performed by a machine, from a
+ *  given setting of its rotors, through one full cycle of its rotor
+ *  positions.  The positions a machine passes through eventually repeat:
+ *  after MU keypresses, the positions recur every LAMBDA keypresses
+ *  (MU is usually 0, but the double stepping of a middle rotor makes some
+ *  settings unreachable from others).  A Keystream holds the permutation
+ *  for each of the first MU + LAMBDA keypresses, so that a key index
+ *  advanced with next() converts characters forever with a single table
+ *  lookup each.
+ *  @author Matthew Jihoon Lee
+ */
+class Keystream {
+
+    /** Return {MU, LAMBDA} for the rotor positions that MACHINE will pass
+     *  through from its current setting, or null if MU + LAMBDA exceeds
+     *  LIMIT.  Uses Brent's algorithm, so takes time proportional to
+     *  MU + LAMBDA and constant space.  MACHINE is not changed. */
+    static long[] cycle(Machine machine, long limit) {
+        Machine tortoise = machine.fork();
+        Machine hare = machine.fork();
+        long power, lambda, steps;
+        power = lambda = steps = 1;
+        hare.step();
+        while (!hare.samePositions(tortoise)) {
+            if (lambda > limit || steps / GIVE_UP > limit) {
+                return null;
+            }
+            if (power == lambda) {
+                tortoise = hare.fork();
+                power *= 2;
+                lambda = 0;
+            }
+            hare.step();
+            lambda += 1;
+            steps += 1;
+        }
+        tortoise = machine.fork();
+        hare = machine.fork();
+        for (long k = 0; k < lambda; k += 1) {
+            hare.step();
+        }
+        long mu = 0;
+        while (!hare.samePositions(tortoise)) {
+            tortoise.step();
+            hare.step();
+            mu += 1;
+            if (mu + lambda > limit) {
+                return null;
+            }
+        }
+        return new long[] { mu, lambda };
+    }
+
+    /** Return the keystream of MACHINE from its current setting, or null
+     *  if it would occupy more than BUDGET bytes.  MACHINE is not
+     *  changed. */
+    static Keystream build(Machine machine, long budget) {
+        int size = machine.alphabet().size();
+        int rotors = machine.retrieveRotors().length;
+        long entryBytes = Character.BYTES * size + Integer.BYTES * rotors;
+        long[] cycle = cycle(machine, Math.min(budget / entryBytes,
+                                               Integer.MAX_VALUE / size));
+        if (cycle == null) {
+            return null;
+        }
+        return new Keystream(machine, (int) cycle[0], (int) cycle[1]);
+    }
+
+    /** The keystream of MACHINE from its current setting, where MU and
+     *  LAMBDA are as returned by cycle(MACHINE, ...). */
+    private Keystream(Machine machine, int mu, int lambda) {
+        _mu = mu;
+        _entries = mu + lambda;
+        _size = machine.alphabet().size();
+        Machine m = machine.fork();
+        _rotors = m.retrieveRotors().length;
+        _perms = new char[_entries * _size];
+        _positions = new int[(_entries + 1) * _rotors];
+        record(m.settings(), 0);
+        for (int k = 0; k < _entries; k += 1) {
+            m.step();
+            record(m.settings(), k + 1);
+            for (int c = 0; c < _size; c += 1) {
+                _perms[k * _size + c] = (char) m.transform(c);
+            }
+        }
+    }
+
+    /** Return the conversion of C (an index in the alphabet) by the
+     *  keypress with key index INDEX. */
+    int convert(int index, int c) {
+        return _perms[index * _size + c];
+    }
+
+    /** Return the key index following INDEX. */
+    int next(int index) {
+        index += 1;
+        return index == _entries ? _mu : index;
+    }
+
+    /** Return the key index N keypresses after INDEX. */
+    int after(int index, long n) {
+        if (n < _entries - index) {
+            return (int) (index + n);
+        }
+        return _mu + (int) ((n - (_entries - index)) % (_entries - _mu));
+    }
+
+    /** Return true iff the rotor settings SETTINGS are those from which
+     *  the keypress with key index INDEX is made. */
+    boolean at(int[] settings, int index) {
+        if (settings.length != _rotors) {
+            return false;
+        }
+        for (int i = 0; i < _rotors; i += 1) {
+            if (settings[i] != _positions[index * _rotors + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Store into SETTINGS the rotor settings from which the keypress
+     *  with key index INDEX is made. */
+    void restore(int[] settings, int index) {
+        System.arraycopy(_positions, index * _rotors, settings, 0, _rotors);
+    }
+
+    /** Record SETTINGS as the rotor settings from which the keypress
+     *  with key index INDEX is made. */
+    private void record(int[] settings, int index) {
+        System.arraycopy(settings, 0, _positions, index * _rotors, _rotors);
+    }
+
+    /** Bound on the ratio of the steps Brent's algorithm takes to
+     *  MU + LAMBDA. */
+    private static final long GIVE_UP = 5;
+
+    /** Key index at which the cycle of positions begins. */
+    private final int _mu;
+
+    /** Number of key indices (MU + LAMBDA). */
+    private final int _entries;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotors. */
+    private final int _rotors;
+
+    /** The conversion of C by the keypress with key index K is at
+     *  _perms[K * _size + C]. */
+    private final char[] _perms;
+
+    /** The setting of rotor I before the keypress with key index K is at
+     *  _positions[K * _rotors + I]; index _entries is equivalent to
+     *  index _mu. */
+    private final int[] _positions;
+
+}
@@ -0,0 +1,260 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import static enigma.EnigmaException.*;
+
+/** A set of independent machine states, or lanes, that are advanced and
+ *  used to convert characters in lockstep.  The lanes share one alphabet
+ *  and number of rotor slots, but each has its own rotors, settings, and
+ *  plugboard, loaded from a Machine or given by number.  The state is
+ *  held as a structure of arrays: for each rotor slot, one array of
+ *  settings and one of rotor numbers indexed by lane, and one array of
+ *  plugboard numbers, with the wirings of all rotors and plugboards in
+ *  shared tables, so that each step of a keypress is one pass over all
+ *  lanes.
+ *  This suits work that tries many keys on short messages, for which the
+ *  fixed costs of Machine.convert dominate.  Each lane converts exactly
+ *  as a separate Machine loaded with the same state would.
+ *  @author Matthew Jihoon Lee
+ */
+class Lanes {
+
+    /** LANES lanes for machines with alphabet ALPHABET and NUMROTORS
+     *  rotor slots.  Lanes must be loaded before use. */
+    Lanes(Alphabet alphabet, int numRotors, int lanes) {
+        _size = alphabet.size();
+        _lanes = lanes;
+        _slots = numRotors;
+        _rotor = new int[numRotors][lanes];
+        _posn = new int[numRotors][lanes];
+        _board = new int[lanes];
+        _chars = new int[lanes];
+        _moves = new boolean[lanes];
+    }
+
+    /** Return the number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Set lane LANE to the state of MACHINE, which must have my
+     *  alphabet and number of rotor slots, and rotors inserted. */
+    void load(int lane, Machine machine) {
+        Rotor[] rotors = machine.retrieveRotors();
+        if (rotors == null || rotors.length != _slots
+            || machine.alphabet().size() != _size) {
+            throw error("machine does not fit these lanes");
+        }
+        int[] settings = machine.settings();
+        for (int i = 0; i < _slots; i += 1) {
+            _rotor[i][lane] = rotorNumber(rotors[i]);
+            _posn[i][lane] = settings[i];
+        }
+        _board[lane] = plugboardNumber(machine.plugboard());
+    }
+
+    /** Set lane LANE to have the rotors numbered ROTORS[I] (from
+     *  rotorNumber) in each slot I, at setting 0, and the plugboard
+     *  numbered BOARD (from plugboardNumber). */
+    void load(int lane, int[] rotors, int board) {
+        for (int i = 0; i < _slots; i += 1) {
+            _rotor[i][lane] = rotors[i];
+            _posn[i][lane] = 0;
+        }
+        _board[lane] = board;
+    }
+
+    /** Set the rotor in slot SLOT of lane LANE to setting POSN. */
+    void set(int lane, int slot, int posn) {
+        _posn[slot][lane] = posn;
+    }
+
+    /** Return the settings of the rotors in lane LANE, from the left. */
+    int[] settings(int lane) {
+        int[] result = new int[_slots];
+        for (int i = 0; i < _slots; i += 1) {
+            result[i] = _posn[i][lane];
+        }
+        return result;
+    }
+
+    /** Advance every lane as for one keypress, and set OUT[L] to the
+     *  conversion of IN[L] (an index in the alphabet) by lane L. */
+    void press(int[] in, int[] out) {
+        int[] c = _chars;
+        for (int k = 0; k < _lanes; k += 1) {
+            c[k] = in[k];
+        }
+        press(out);
+    }
+
+    /** Advance every lane as for one keypress, and set OUT[L] to the
+     *  conversion of IN (an index in the alphabet) by lane L. */
+    void press(int in, int[] out) {
+        Arrays.fill(_chars, in);
+        press(out);
+    }
+
+    /** Advance every lane as for one keypress, and set OUT[L] to the
+     *  conversion of _chars[L] by lane L. */
+    private void press(int[] out) {
+        step();
+        int[] c = _chars;
+        int n = _size;
+        for (int k = 0; k < _lanes; k += 1) {
+            c[k] = _plugboards[_board[k] * n + c[k]];
+        }
+        for (int i = _slots - 1; i >= 0; i -= 1) {
+            through(_forward, _rotor[i], _posn[i], c);
+        }
+        for (int i = 1; i < _slots; i += 1) {
+            through(_inverse, _rotor[i], _posn[i], c);
+        }
+        for (int k = 0; k < _lanes; k += 1) {
+            out[k] = _plugboards[_board[k] * n + c[k]];
+        }
+    }
+
+    /** Convert MSG (indices in the alphabet) in every lane, setting
+     *  OUT[K * lanes() + L] to the conversion of MSG[K] by lane L. */
+    void convert(int[] msg, int[] out) {
+        int[] result = new int[_lanes];
+        for (int j = 0; j < msg.length; j += 1) {
+            press(msg[j], result);
+            System.arraycopy(result, 0, out, j * _lanes, _lanes);
+        }
+    }
+
+    /** Pass C[L] through the rotor numbered ROTOR[L] at setting POSN[L],
+     *  using TABLE (_forward or _inverse), for each lane L. */
+    private void through(int[] table, int[] rotor, int[] posn, int[] c) {
+        int n = _size;
+        for (int k = 0; k < _lanes; k += 1) {
+            int p = posn[k];
+            int x = c[k] + p;
+            x = table[rotor[k] * n + (x >= n ? x - n : x)] - p;
+            c[k] = x < 0 ? x + n : x;
+        }
+    }
+
+    /** Advance the rotors of every lane as Machine.step does. */
+    private void step() {
+        int last = _slots - 1;
+        int n = _size;
+        boolean[] moves = _moves;
+        for (int i = 0; i <= last; i += 1) {
+            int[] rotor = _rotor[i], posn = _posn[i];
+            if (i == last) {
+                Arrays.fill(moves, true);
+            } else {
+                int[] right = _rotor[i + 1], rightPosn = _posn[i + 1];
+                for (int k = 0; k < _lanes; k += 1) {
+                    moves[k] = _rotates[right[k]]
+                        && _notch[right[k] * n + rightPosn[k]];
+                }
+            }
+            if (i > 0) {
+                int[] left = _rotor[i - 1];
+                for (int k = 0; k < _lanes; k += 1) {
+                    moves[k] |= _rotates[left[k]]
+                        && _notch[rotor[k] * n + posn[k]];
+                }
+            }
+            for (int k = 0; k < _lanes; k += 1) {
+                if (moves[k] && _rotates[rotor[k]]) {
+                    int p = posn[k] + 1;
+                    posn[k] = p == n ? 0 : p;
+                }
+            }
+        }
+    }
+
+    /** Return the number of ROTOR in my tables, adding it if needed. */
+    int rotorNumber(Rotor rotor) {
+        Integer result = _numbers.get(rotor);
+        if (result != null) {
+            return result;
+        }
+        int k = _numbers.size();
+        int n = _size;
+        _forward = Arrays.copyOf(_forward, (k + 1) * n);
+        _inverse = Arrays.copyOf(_inverse, (k + 1) * n);
+        _notch = Arrays.copyOf(_notch, (k + 1) * n);
+        _rotates = Arrays.copyOf(_rotates, k + 1);
+        Permutation perm = rotor.permutation();
+        for (int c = 0; c < n; c += 1) {
+            _forward[k * n + c] = perm.permute(c);
+            _inverse[k * n + c] = perm.invert(c);
+            _notch[k * n + c] = rotor.rotates() && rotor.notchAt(c);
+        }
+        _rotates[k] = rotor.rotates();
+        _numbers.put(rotor, k);
+        return k;
+    }
+
+    /** Return the number of PLUGBOARD in my tables, adding it if
+     *  needed. */
+    int plugboardNumber(Permutation plugboard) {
+        Integer result = _boardNumbers.get(plugboard);
+        if (result != null) {
+            return result;
+        }
+        int k = _boardNumbers.size();
+        _plugboards = Arrays.copyOf(_plugboards, (k + 1) * _size);
+        for (int c = 0; c < _size; c += 1) {
+            _plugboards[k * _size + c] = plugboard.permute(c);
+        }
+        _boardNumbers.put(plugboard, k);
+        return k;
+    }
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of lanes. */
+    private final int _lanes;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** _rotor[I][L] is the number of the rotor in slot I of lane L. */
+    private final int[][] _rotor;
+
+    /** _posn[I][L] is the setting of the rotor in slot I of lane L. */
+    private final int[][] _posn;
+
+    /** _board[L] is the number of the plugboard of lane L. */
+    private final int[] _board;
+
+    /** Characters being converted, by lane. */
+    private final int[] _chars;
+
+    /** Whether each lane's rotor moves in the slot being stepped. */
+    private final boolean[] _moves;
+
+    /** Numbers of the rotors in my tables. */
+    private final IdentityHashMap<Rotor, Integer> _numbers =
+        new IdentityHashMap<>();
+
+    /** Rotor R maps C to _forward[R * _size + C] at setting 0. */
+    private int[] _forward = new int[0];
+
+    /** Rotor R maps C to _inverse[R * _size + C] backwards at setting 0. */
+    private int[] _inverse = new int[0];
+
+    /** _notch[R * _size + P] is true iff rotor R has a notch at P. */
+    private boolean[] _notch = new boolean[0];
+
+    /** _rotates[R] is true iff rotor R moves. */
+    private boolean[] _rotates = new boolean[0];
+
+    /** Numbers of the plugboards in my tables. */
+    private final IdentityHashMap<Permutation, Integer> _boardNumbers =
+        new IdentityHashMap<>();
+
+    /** Plugboard B maps C to _plugboards[B * _size + C]. */
+    private int[] _plugboards = new int[0];
+
+}
@@ -0,0 +1,104 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Lanes class.
+ *  @author Matthew Jihoon Lee
+ */
+public class LanesTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Return a machine with the naval rotors, in which each rotor is
+     *  chosen at random using RANDOM, and set at random. */
+    private Machine randomMachine(List<Rotor> allRotors, Random random) {
+        Machine machine = new Machine(UPPER, 5, 3, allRotors);
+        ArrayList<String> moving = new ArrayList<>();
+        for (String name : new String[] {"I", "II", "III", "IV", "V",
+                                         "VI", "VII", "VIII"}) {
+            moving.add(name);
+        }
+        Collections.shuffle(moving, random);
+        machine.insertRotors(new String[] {
+            random.nextBoolean() ? "B" : "C",
+            random.nextBoolean() ? "Beta" : "Gamma",
+            moving.get(0), moving.get(1), moving.get(2) });
+        StringBuilder setting = new StringBuilder();
+        for (int i = 0; i < 4; i += 1) {
+            setting.append((char) ('A' + random.nextInt(26)));
+        }
+        machine.setRotors(setting.toString());
+        ArrayList<Character> letters = new ArrayList<>();
+        for (char ch = 'A'; ch <= 'Z'; ch += 1) {
+            letters.add(ch);
+        }
+        Collections.shuffle(letters, random);
+        StringBuilder plugs = new StringBuilder();
+        for (int i = random.nextInt(11); i > 0; i -= 1) {
+            plugs.append("(").append(letters.get(2 * i))
+                .append(letters.get(2 * i + 1)).append(") ");
+        }
+        machine.setPlugboard(new Permutation(plugs.toString(), UPPER));
+        return machine;
+    }
+
+    @Test
+    public void testSameAsMachines() {
+        Random random = new Random(21);
+        List<Rotor> allRotors = navalRotors();
+        Machine[] machines = new Machine[37];
+        Lanes lanes = new Lanes(UPPER, 5, machines.length);
+        for (int k = 0; k < machines.length; k += 1) {
+            machines[k] = randomMachine(allRotors, random);
+            lanes.load(k, machines[k]);
+        }
+        int[] msg = new int[2000];
+        for (int j = 0; j < msg.length; j += 1) {
+            msg[j] = random.nextInt(26);
+        }
+        int[] out = new int[msg.length * machines.length];
+        lanes.convert(msg, out);
+        for (int k = 0; k < machines.length; k += 1) {
+            for (int j = 0; j < msg.length; j += 1) {
+                assertEquals(machines[k].convert(msg[j]),
+                             out[j * machines.length + k]);
+            }
+            assertArrayEquals(machines[k].settings(), lanes.settings(k));
+        }
+    }
+
+    @Test
+    public void testPress() {
+        Random random = new Random(22);
+        List<Rotor> allRotors = navalRotors();
+        Machine[] machines = new Machine[5];
+        Lanes lanes = new Lanes(UPPER, 5, machines.length);
+        for (int k = 0; k < machines.length; k += 1) {
+            machines[k] = randomMachine(allRotors, random);
+            lanes.load(k, machines[k]);
+        }
+        int[] in = new int[machines.length], out = new int[machines.length];
+        for (int j = 0; j < 500; j += 1) {
+            for (int k = 0; k < in.length; k += 1) {
+                in[k] = random.nextInt(26);
+            }
+            lanes.press(in, out);
+            for (int k = 0; k < in.length; k += 1) {
+                assertEquals(machines[k].convert(in[k]), out[k]);
+            }
+        }
+    }
+
+}
@@ -1,15 +1,29 @@
 package enigma;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Collection;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import static enigma.EnigmaException.*;
 
-/** Class that represents a complete enigma machine.
+/** Class that represents a complete enigma machine.  Callers outside
+ *  this package make one with create(), key it with setUp(), choose a
+ *  CharPolicy with setPolicy(), and use the public convert methods, none
+ *  of which allocates storage per character converted.
  *  @author Matthew Jihoon Lee
  */
-class Machine {
+public class Machine {
 
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
@@ -21,6 +35,59 @@ class Machine {
         _pawls = pawls;
         _allRotors = allRotors;
         _plugboard = new Permutation("", _alphabet);
+        _catalog = new Catalog(allRotors);
+    }
+
+    /** Return a new machine configured by CONFIG, the text of a
+     *  configuration file, and set up by the settings line SETTINGS,
+     *  such as "* B Beta III IV I AXLE (HQ) (EX)".  Throws an
+     *  EnigmaException if either is malformed. */
+    public static Machine create(String config, String settings) {
+        Machine result = Config.load(config, null).newMachine();
+        result.setUp(settings);
+        return result;
+    }
+
+    /** Set my rotors, their settings, and my plugboard as given by the
+     *  settings line SETTINGS, as in an input file, such as
+     *  "* B Beta III IV I AXLE (HQ) (EX)". */
+    public void setUp(String settings) {
+        int end = nextToken(settings, 0);
+        Rotor[] rotors = new Rotor[_numRotors];
+        for (int i = 0; i < _numRotors; i += 1) {
+            int start = skipBlanks(settings, end);
+            end = nextToken(settings, start);
+            if (start == end) {
+                throw new EnigmaException("Not enough arguments here");
+            }
+            rotors[i] = rotorNamed(settings.substring(start, end));
+        }
+        insertRotors(rotors);
+        if (!rotors[0].reflecting()) {
+            throw new EnigmaException("First rotor should reflect");
+        }
+        int start = skipBlanks(settings, end);
+        end = nextToken(settings, start);
+        if (start == end) {
+            throw new EnigmaException("Rotor name is wrong");
+        }
+        setRotors(settings.substring(start, end));
+        setPlugboard(plugboard(settings.substring(end)));
+    }
+
+    /** A new machine sharing the configuration of ORIGINAL, but with no
+     *  rotors inserted. */
+    private Machine(Machine original) {
+        _alphabet = original._alphabet;
+        _numRotors = original._numRotors;
+        _pawls = original._pawls;
+        _allRotors = original._allRotors;
+        _catalog = original._catalog;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /** Return the number of rotor slots I have. */
@@ -33,44 +100,271 @@ class Machine {
         return _pawls;
     }
 
+    /** Return my available rotors. */
+    Collection<Rotor> allRotors() {
+        return Collections.unmodifiableCollection(_allRotors);
+    }
+
+    /** Return a new machine with my alphabet, rotors, settings, plugboard,
+     *  policy, keystream budget and permutation cache, whose rotors move
+     *  independently of mine.  Only my settings are copied, so this takes
+     *  time proportional to the number of rotors, and the two machines may
+     *  be used by different threads.  A keystream table I have already
+     *  built is shared with the fork. */
+    public Machine fork() {
+        Machine result = new Machine(this);
+        result._rotors = _rotors;
+        if (_positions != null) {
+            result._positions = _positions.clone();
+        }
+        result._plugboard = _plugboard;
+        result._plugboardId = _plugboardId;
+        result._policy = _policy;
+        result._keystreamBudget = _keystreamBudget;
+        result._keystream = _keystream;
+        result._keyIndex = _keyIndex;
+        result._keystreamTried = _keystreamTried;
+        result._pressed = _pressed;
+        result._cache = _cache;
+        result._cacheConfig = _cacheConfig;
+        result._cacheBits = _cacheBits;
+        return result;
+    }
+
     /** @return A method that allows other classes to retrieve rotors
      * while keeping _rotors private. */
     Rotor[] retrieveRotors() {
         return _rotors;
     }
 
+    /** Return the current settings of my rotors, from the left. */
+    int[] settings() {
+        return _positions.clone();
+    }
+
+    /** Return my complete state (the rotors in my slots, their settings,
+     *  and my plugboard) packed into a non-negative long, or NO_STATE if
+     *  it does not fit, in which case state() must be used instead.  The
+     *  plugboard is represented by a number registered with my
+     *  configuration, so the result may be given to restore(long) of
+     *  this machine or any machine sharing its configuration (such as a
+     *  fork) in the same program, as long as its plugboard is among the
+     *  last few thousand used in packed states. */
+    public long packedState() {
+        checkRotors();
+        int rotorBits = bitsFor(_catalog.size());
+        int posnBits = bitsFor(_alphabet.size());
+        int boardBits = Long.SIZE - 1 - _rotors.length * (rotorBits + posnBits);
+        if (boardBits < 0) {
+            return NO_STATE;
+        }
+        if (!_catalog.holds(_plugboardId, _plugboard)) {
+            _plugboardId = _catalog.register(_plugboard);
+        }
+        if (boardBits < Integer.SIZE - 1 && _plugboardId >>> boardBits != 0) {
+            return NO_STATE;
+        }
+        long result = _plugboardId;
+        for (int i = 0; i < _rotors.length; i += 1) {
+            result = (result << rotorBits) | _catalog.ordinal(_rotors[i]);
+            result = (result << posnBits) | _positions[i];
+        }
+        return result;
+    }
+
+    /** Set my state to STATE, as returned by packedState(), in time
+     *  proportional to the number of rotors. */
+    public void restore(long state) {
+        if (state < 0) {
+            throw error("invalid machine state");
+        }
+        int rotorBits = bitsFor(_catalog.size());
+        int posnBits = bitsFor(_alphabet.size());
+        Rotor[] rotors = new Rotor[_numRotors];
+        int[] positions = new int[_numRotors];
+        for (int i = _numRotors - 1; i >= 0; i -= 1) {
+            positions[i] = (int) (state & ((1L << posnBits) - 1));
+            state >>>= posnBits;
+            rotors[i] = _catalog.rotor((int) (state & ((1L << rotorBits) - 1)));
+            state >>>= rotorBits;
+        }
+        if (state > Integer.MAX_VALUE) {
+            throw error("invalid machine state");
+        }
+        restore(rotors, positions, _catalog.registered((int) state));
+    }
+
+    /** Return my complete state (see packedState()) as a byte array,
+     *  which is self-contained: it holds the table of my plugboard, and
+     *  so may be saved, say as a checkpoint of a long conversion, and
+     *  given to restore(byte[]) of any machine with the same
+     *  configuration, in this program or another. */
+    public byte[] state() {
+        checkRotors();
+        int size = _alphabet.size();
+        ByteBuffer result =
+            ByteBuffer.allocate(2 + 2 * Character.BYTES * _rotors.length
+                                + Character.BYTES * (1 + size));
+        result.put(STATE_VERSION);
+        result.put((byte) _rotors.length);
+        for (int i = 0; i < _rotors.length; i += 1) {
+            result.putChar((char) _catalog.ordinal(_rotors[i]));
+            result.putChar((char) _positions[i]);
+        }
+        result.putChar((char) size);
+        for (int c = 0; c < size; c += 1) {
+            result.putChar((char) _plugboard.permute(c));
+        }
+        return result.array();
+    }
+
+    /** Set my state to STATE, as returned by state(). */
+    public void restore(byte[] state) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(state);
+            if (in.get() != STATE_VERSION || in.get() != _numRotors) {
+                throw error("invalid machine state");
+            }
+            Rotor[] rotors = new Rotor[_numRotors];
+            int[] positions = new int[_numRotors];
+            for (int i = 0; i < _numRotors; i += 1) {
+                rotors[i] = _catalog.rotor(in.getChar());
+                positions[i] = in.getChar();
+            }
+            int[] board = new int[in.getChar()];
+            for (int c = 0; c < board.length; c += 1) {
+                board[c] = in.getChar();
+            }
+            restore(rotors, positions, new Permutation(board, _alphabet));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException excp) {
+            throw error("invalid machine state");
+        }
+    }
+
+    /** Set my rotors to ROTORS with settings POSITIONS, and my plugboard
+     *  to PLUGBOARD. */
+    private void restore(Rotor[] rotors, int[] positions,
+                         Permutation plugboard) {
+        for (int i = 0; i < positions.length; i += 1) {
+            if (positions[i] >= _alphabet.size()) {
+                throw error("invalid machine state");
+            }
+        }
+        insertRotors(rotors);
+        System.arraycopy(positions, 0, _positions, 0, positions.length);
+        setPlugboard(plugboard);
+    }
+
+    /** Check that I have rotors. */
+    private void checkRotors() {
+        if (_rotors == null) {
+            throw error("no rotors inserted");
+        }
+    }
+
+    /** Return the index in LINE of the first character at or after START
+     *  that is not a blank. */
+    private static int skipBlanks(String line, int start) {
+        while (start < line.length()
+               && Character.isWhitespace(line.charAt(start))) {
+            start += 1;
+        }
+        return start;
+    }
+
+    /** Return the index in LINE just past the token beginning at START,
+     *  or START if there is none. */
+    private static int nextToken(String line, int start) {
+        while (start < line.length()
+               && !Character.isWhitespace(line.charAt(start))) {
+            start += 1;
+        }
+        return start;
+    }
+
+    /** Return the number of bits needed for the numbers 0 .. N - 1. */
+    private static int bitsFor(int n) {
+        return n <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(n - 1);
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
-        _rotors = new Rotor[numRotors()];
-        HashMap<String, Rotor> hmap = new HashMap<>();
-        for (Rotor r: _allRotors) {
-            hmap.put(r.name().toUpperCase(), r);
+        if (numRotors() != rotors.length) {
+            throw EnigmaException.error("The rotors are not named correctly!");
         }
-        for (int i = 0; i < _rotors.length; i++) {
-            try {
-                _rotors[i] = hmap.get(rotors[i].toUpperCase());
-            } catch (EnigmaException e) {
-                throw new EnigmaException("Wrong name");
+        Rotor[] chosen = new Rotor[rotors.length];
+        for (int i = 0; i < chosen.length; i++) {
+            chosen[i] = rotorNamed(rotors[i]);
+        }
+        insertRotors(chosen);
+    }
+
+    /** Set my rotor slots to ROTORS, which must be numRotors() distinct
+     *  rotors from my set of available rotors, all at their 0 setting.
+     *  Does nothing but reset the settings if ROTORS are the rotors I
+     *  already have, so that tables depending on them are kept. */
+    void insertRotors(Rotor[] rotors) {
+        if (_stamps == null) {
+            _stamps = new int[_catalog.size()];
+        }
+        _stamp += 1;
+        for (Rotor r : rotors) {
+            int k = _catalog.ordinal(r);
+            if (_stamps[k] == _stamp) {
+                throw error("Rotor cannot be used again!");
             }
+            _stamps[k] = _stamp;
         }
-        if (_rotors.length != rotors.length) {
-            throw EnigmaException.error("The rotors are not named correctly!");
+        if (_rotors == null || !Arrays.equals(_rotors, rotors)) {
+            _cacheConfig = UNKNOWN;
+            _keystream = null;
+            _rotors = rotors.clone();
+            _positions = new int[numRotors()];
+        } else {
+            Arrays.fill(_positions, 0);
         }
+        _keystreamTried = false;
+        _pressed = 0;
+        _slowValid = false;
+    }
+
+    /** Return my available rotor named NAME, ignoring case. */
+    Rotor rotorNamed(String name) {
+        Rotor result = _catalog.rotor(name);
+        if (result == null) {
+            throw error("unknown rotor %s", name);
+        }
+        return result;
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the plugboard given by CYCLES, which are in the notation
+     *  taken by Permutation.  Plugboards are remembered, so settings
+     *  lines that repeat one do not parse it again. */
+    Permutation plugboard(String cycles) {
+        return _catalog.plugboard(cycles, _alphabet);
     }
 
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).  */
     void setRotors(String setting) {
+        _keystreamTried = false;
+        _pressed = 0;
+        _slowValid = false;
         if (setting.length() != (numRotors() - 1)) {
             throw new EnigmaException("Length of setting String"
                     + "is the wrong length!");
         }
         for (int i = 1; i < _rotors.length; i++) {
             if (!_rotors[i].reflecting()) {
-                _rotors[i].set(setting.charAt(i - 1));
+                _positions[i] = _alphabet.toInt(setting.charAt(i - 1));
             } else {
                 throw new EnigmaException("The reflector is not"
                         + "where it should be");
@@ -80,14 +374,272 @@ class Machine {
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        if (plugboard == _plugboard) {
+            return;
+        }
         _plugboard = plugboard;
+        _plugboardId = -1;
+        _cacheConfig = UNKNOWN;
+        _keystream = null;
+        _keystreamTried = false;
+        _pressed = 0;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
+        checkPawls();
+        Keystream keys = keystream(1);
+        c = press(keys, c);
+        sync(keys);
+        return c;
+    }
+
+    /** Returns the encoding/decoding of MSG, updating the state of
+     *  the rotors accordingly.  Characters of MSG that are not in my
+     *  alphabet, even in upper case, are treated according to policy(). */
+    public String convert(String msg) {
+        char[] buf = msg.toCharArray();
+        return new String(buf, 0, convert(buf, 0, buf, 0, buf.length));
+    }
+
+    /** Return the result of converting MSG as for convertParallel. */
+    public String convertParallel(String msg) {
+        char[] src = msg.toCharArray();
+        char[] dst = new char[src.length];
+        return new String(dst, 0,
+                          convertParallel(src, 0, dst, 0, src.length));
+    }
+
+    /** Convert the LEN characters SRC[SRCPOS .. SRCPOS+LEN-1] into DST,
+     *  starting at DST[DSTPOS], updating the state of the rotors
+     *  accordingly, and return the number of characters stored.  That is
+     *  LEN unless policy() is STRIP, in which case it may be fewer.  SRC
+     *  and DST may be the same array, provided DSTPOS <= SRCPOS, so a
+     *  buffer may be converted in place.  Under the REJECT policy, throws
+     *  an EnigmaException without changing DST or the rotors if any of
+     *  the characters is not in my alphabet. */
+    public int convert(char[] src, int srcPos, char[] dst, int dstPos,
+                       int len) {
+        checkPawls();
+        if (_policy == CharPolicy.REJECT) {
+            for (int i = srcPos; i < srcPos + len; i += 1) {
+                if (lookup(src[i]) < 0) {
+                    throw notInAlphabet(src[i]);
+                }
+            }
+        }
+        Keystream keys = keystream(len);
+        int d = dstPos;
+        for (int i = srcPos; i < srcPos + len; i += 1) {
+            char ch = src[i];
+            int in = lookup(ch);
+            if (in >= 0) {
+                dst[d] = _alphabet.toChar(press(keys, in));
+                d += 1;
+            } else if (_policy == CharPolicy.PASS) {
+                dst[d] = Character.toUpperCase(ch);
+                d += 1;
+            }
+        }
+        sync(keys);
+        return d - dstPos;
+    }
+
+    /** As for convert(SRC, SRCPOS, DST, DSTPOS, LEN), but dividing the
+     *  characters among the threads of the common ForkJoinPool.  Each
+     *  piece is converted by a fork() of this machine advanced directly
+     *  to the number of keypresses that precede the piece, and this
+     *  machine is then advanced past the whole message, so the results
+     *  are those of sequential conversion.  A keystream table, if my
+     *  budget calls for one, is built once and shared by the pieces.
+     *  The ranges of SRC and DST must not overlap, except that they may
+     *  coincide when policy() is not STRIP. */
+    public int convertParallel(char[] src, int srcPos, char[] dst,
+                               int dstPos, int len) {
+        checkPawls();
+        int pieces = Math.min(len / MIN_PIECE,
+                              PIECES_PER_THREAD
+                              * ForkJoinPool.getCommonPoolParallelism());
+        if (pieces < 2) {
+            return convert(src, srcPos, dst, dstPos, len);
+        }
+        int[] start = new int[pieces + 1];
+        for (int k = 0; k <= pieces; k += 1) {
+            start[k] = srcPos + (int) ((long) len * k / pieces);
+        }
+        int[] presses = new int[pieces];
+        int[] rejected = new int[pieces];
+        IntStream.range(0, pieces).parallel().forEach(k -> {
+            rejected[k] = -1;
+            for (int i = start[k]; i < start[k + 1]; i += 1) {
+                if (lookup(src[i]) >= 0) {
+                    presses[k] += 1;
+                } else if (_policy == CharPolicy.REJECT) {
+                    rejected[k] = i;
+                    break;
+                }
+            }
+        });
+        for (int i : rejected) {
+            if (i >= 0) {
+                throw notInAlphabet(src[i]);
+            }
+        }
+        long[] pressesBefore = new long[pieces + 1];
+        int[] out = new int[pieces + 1];
+        out[0] = dstPos;
+        for (int k = 0; k < pieces; k += 1) {
+            pressesBefore[k + 1] = pressesBefore[k] + presses[k];
+            out[k + 1] = out[k] + (_policy == CharPolicy.STRIP ? presses[k]
+                                   : start[k + 1] - start[k]);
+        }
+        keystream(len);
+        IntStream.range(0, pieces).parallel().forEach(k -> {
+            Machine piece = fork();
+            piece._keystreamTried = true;
+            piece.advance(pressesBefore[k]);
+            piece.convert(src, start[k], dst, out[k], start[k + 1] - start[k]);
+        });
+        advance(pressesBefore[pieces]);
+        return out[pieces] - dstPos;
+    }
+
+    /** Convert the remaining characters of SRC into DST, updating the
+     *  rotors accordingly, until SRC is exhausted or DST is full.  The
+     *  positions of both buffers are advanced past the characters read
+     *  and written.  Under the REJECT policy, throws an EnigmaException
+     *  without consuming anything if any remaining character of SRC is
+     *  not in my alphabet. */
+    public void convert(CharBuffer src, CharBuffer dst) {
+        checkPawls();
+        if (_policy == CharPolicy.REJECT) {
+            for (int i = src.position(); i < src.limit(); i += 1) {
+                if (lookup(src.get(i)) < 0) {
+                    throw notInAlphabet(src.get(i));
+                }
+            }
+        }
+        Keystream keys = keystream(src.remaining());
+        while (src.hasRemaining() && dst.hasRemaining()) {
+            char ch = src.get();
+            int in = lookup(ch);
+            if (in >= 0) {
+                dst.put(_alphabet.toChar(press(keys, in)));
+            } else if (_policy == CharPolicy.PASS) {
+                dst.put(Character.toUpperCase(ch));
+            }
+        }
+        sync(keys);
+    }
 
+    /** As for convert(CharBuffer, CharBuffer), but for SRC and DST
+     *  holding one character per byte in the ISO-8859-1 encoding (of
+     *  which ASCII is a subset).  My alphabet must be encodable in it.
+     *  Under the PASS policy, likewise throws an EnigmaException without
+     *  consuming anything if some remaining character of SRC is not in
+     *  my alphabet and has an upper-case form that is not a byte (as
+     *  0xFF and 0xB5 do). */
+    public void convert(ByteBuffer src, ByteBuffer dst) {
+        checkPawls();
+        if (_policy != CharPolicy.STRIP) {
+            for (int i = src.position(); i < src.limit(); i += 1) {
+                char ch = (char) (src.get(i) & BYTE_MASK);
+                if (lookup(ch) >= 0) {
+                    continue;
+                } else if (_policy == CharPolicy.REJECT) {
+                    throw notInAlphabet(ch);
+                } else if (Character.toUpperCase(ch) > BYTE_MASK) {
+                    throw error("'%c' cannot be written as a byte",
+                                Character.toUpperCase(ch));
+                }
+            }
+        }
+        Keystream keys = keystream(src.remaining());
+        while (src.hasRemaining() && dst.hasRemaining()) {
+            char ch = (char) (src.get() & BYTE_MASK);
+            int in = lookup(ch);
+            if (in >= 0) {
+                ch = _alphabet.toChar(press(keys, in));
+            } else if (_policy == CharPolicy.STRIP) {
+                continue;
+            } else {
+                ch = Character.toUpperCase(ch);
+            }
+            dst.put((byte) ch);
+        }
+        sync(keys);
+    }
+
+    /** Move my rotors exactly as N keypresses would, without converting
+     *  anything.  Takes time independent of N except when some rotor
+     *  that both pushes and is pushed has notches at adjacent positions,
+     *  when it is still only proportional to the number of keypresses on
+     *  which a rotor other than the rightmost moves. */
+    public void advance(long n) {
+        checkPawls();
+        if (n < 0) {
+            throw error("cannot advance by a negative amount");
+        } else if (n == 0) {
+            return;
+        }
+        Keystream keys = keystream(n);
+        if (keys != null) {
+            _keyIndex = keys.after(_keyIndex, n);
+            sync(keys);
+            return;
+        }
+        step();
+        n -= 1;
+        if (JumpAhead.applies(_rotors)) {
+            _positions = new JumpAhead(_rotors, _positions).after(n);
+            _slowValid = false;
+            return;
+        }
+        int last = _rotors.length - 1;
+        int size = _alphabet.size();
+        while (n > 0) {
+            long quiet = quietSteps();
+            if (quiet == 0) {
+                step();
+                n -= 1;
+            } else {
+                long k = Math.min(quiet, n);
+                if (_rotors[last].rotates()) {
+                    _positions[last] =
+                        (int) ((_positions[last] + k % size) % size);
+                }
+                n -= k;
+            }
+        }
+    }
+
+    /** Return the number of keypresses, starting with the next, on which
+     *  only my rightmost rotor will move (Long.MAX_VALUE if it is
+     *  unlimited). */
+    private long quietSteps() {
+        int last = _rotors.length - 1;
+        for (int i = 1; i < last; i += 1) {
+            if (_rotors[i - 1].rotates() && _rotors[i].rotates()
+                && _rotors[i].notchAt(_positions[i])) {
+                return 0;
+            }
+        }
+        Rotor fast = _rotors[last];
+        if (last == 0 || !fast.rotates() || !_rotors[last - 1].rotates()) {
+            return Long.MAX_VALUE;
+        }
+        for (int k = 0; k < fast.size(); k += 1) {
+            if (fast.notchAt((_positions[last] + k) % fast.size())) {
+                return k;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /** Check that exactly numPawls() of my rotors move. */
+    private void checkPawls() {
         int rotorsthatmove = 0;
         for (int i = 0; i < _rotors.length; i++) {
             if (_rotors[i].rotates()) {
@@ -97,34 +649,107 @@ class Machine {
         if (rotorsthatmove != numPawls()) {
             throw new EnigmaException("Amount of moving rotors wrong!");
         }
+    }
 
-        ArrayList<Rotor> advance = new ArrayList<>();
-        if (_plugboard != null) {
-            c = _plugboard.permute(c);
-        }
-        Rotor last = _rotors[_rotors.length - 1];
-        advance.add(last);
-        for (int i = 0; i < _rotors.length - 1; i++) {
+    /** Advance my rotors as for one keypress: the rightmost rotor always,
+     *  and each pair of adjacent moving rotors whose right member is at a
+     *  notch.  Decisions are made from the settings before the keypress;
+     *  rotor I is only advanced after its own and its right neighbor's
+     *  notches have been examined. */
+    void step() {
+        int last = _rotors.length - 1;
+        for (int i = 0; i <= last; i += 1) {
             Rotor curr = _rotors[i];
-            Rotor next = _rotors[i + 1];
-            if (next.atNotch() && curr.rotates() && next.rotates()) {
-                if (!advance.contains(_rotors[i])) {
-                    advance.add(_rotors[i]);
-                }
-                if (!advance.contains(_rotors[i + 1])) {
-                    advance.add(_rotors[i + 1]);
+            boolean move = i == last;
+            if (!move && curr.rotates() && _rotors[i + 1].rotates()) {
+                move = _rotors[i + 1].notchAt(_positions[i + 1]);
+            }
+            if (!move && i > 0 && curr.rotates()
+                && _rotors[i - 1].rotates()) {
+                move = curr.notchAt(_positions[i]);
+            }
+            if (move && curr.rotates()) {
+                int posn = _positions[i] + 1;
+                _positions[i] = posn == curr.size() ? 0 : posn;
+                if (i < last) {
+                    _slowValid = false;
                 }
             }
         }
+    }
+
+    /** Advance the machine and return the conversion of C (an index in my
+     *  alphabet).  Assumes checkPawls() has succeeded. */
+    private int encode(int c) {
+        step();
+        int last = _rotors.length - 1;
+        if (last < 1) {
+            return transform(c);
+        }
+        if (!_slowValid) {
+            resetSlow();
+        }
+        Rotor fast = _rotors[last];
+        int posn = _positions[last];
+        if (_plugboard != null) {
+            c = _plugboard.permute(c);
+        }
+        c = fast.convertBackward(slow(fast.convertForward(c, posn)), posn);
+        if (_plugboard != null) {
+            c = _plugboard.permute(c);
+        }
+        return c;
+    }
+
+    /** Discard the entries of _slow, which are for earlier settings of
+     *  my rotors. */
+    private void resetSlow() {
+        if (_slow == null || _slow.length != _alphabet.size()) {
+            _slow = new int[_alphabet.size()];
+            _slowStamps = new int[_alphabet.size()];
+            _slowStamp = 0;
+        }
+        if (_slowStamp == Integer.MAX_VALUE) {
+            Arrays.fill(_slowStamps, 0);
+            _slowStamp = 0;
+        }
+        _slowStamp += 1;
+        _slowValid = true;
+    }
+
+    /** Return the passage of C (an index in my alphabet) through all my
+     *  rotors but the last, at their current settings, remembering it in
+     *  _slow.  Entries are computed as they are first needed, since
+     *  after frequent changes of settings, or in short messages, most are
+     *  never used. */
+    private int slow(int c) {
+        if (_slowStamps[c] == _slowStamp) {
+            return _slow[c];
+        }
+        int last = _rotors.length - 1;
+        int x = c;
+        for (int i = last - 1; i >= 0; i -= 1) {
+            x = _rotors[i].convertForward(x, _positions[i]);
+        }
+        for (int i = 1; i < last; i += 1) {
+            x = _rotors[i].convertBackward(x, _positions[i]);
+        }
+        _slow[c] = x;
+        _slowStamps[c] = _slowStamp;
+        return x;
+    }
 
-        for (Rotor r: advance) {
-            r.advance();
+    /** Return the conversion of C (an index in my alphabet) at the
+     *  current settings of my rotors, without advancing them. */
+    int transform(int c) {
+        if (_plugboard != null) {
+            c = _plugboard.permute(c);
         }
         for (int i = _rotors.length - 1; i >= 0; i--) {
-            c = _rotors[i].convertForward(c);
+            c = _rotors[i].convertForward(c, _positions[i]);
         }
         for (int i = 1; i < _rotors.length; i++) {
-            c = _rotors[i].convertBackward(c);
+            c = _rotors[i].convertBackward(c, _positions[i]);
         }
         if (_plugboard != null) {
             c = _plugboard.permute(c);
@@ -132,33 +757,216 @@ class Machine {
         return c;
     }
 
-    /** Returns the encoding/decoding of MSG, updating the state of
-     *  the rotors accordingly. */
-    String convert(String msg) {
-        int rotorsthatmove = 0;
-        for (int i = 0; i < _rotors.length; i++) {
-            if (_rotors[i].rotates()) {
-                rotorsthatmove += 1;
+    /** Return the number of keypresses after which the positions of my
+     *  rotors, starting from their current settings, eventually repeat.
+     *  Takes time proportional to the result. */
+    public long period() {
+        checkPawls();
+        return Keystream.cycle(this, Long.MAX_VALUE)[1];
+    }
+
+    /** Allow up to BYTES bytes for a table of the permutations I perform
+     *  through one whole period() of my rotor positions, making the
+     *  conversion of each character a single table lookup.  A table
+     *  takes about period() times the alphabet size steps to build, so it
+     *  pays only for messages that are long compared to that; it is
+     *  built once enough characters have been converted since the rotors,
+     *  their settings, or the plugboard last changed.  A BYTES of 0 (the
+     *  default) disables tables. */
+    public void setKeystreamBudget(long bytes) {
+        _keystreamBudget = bytes;
+        _keystream = null;
+        _keystreamTried = false;
+        _pressed = 0;
+    }
+
+    /** Return true iff I am converting through a keystream table. */
+    boolean usingKeystream() {
+        return _keystream != null;
+    }
+
+    /** Look up or convert the permutations I perform in CACHE, which is
+     *  shared with any other machines using it.  A null CACHE (the
+     *  default) disables caching.  Only machines whose rotor settings
+     *  can be packed into a long use the cache. */
+    public void setPermutationCache(PermutationCache cache) {
+        _cache = cache;
+        _cacheConfig = UNKNOWN;
+    }
+
+    /** Return my configuration number in _cache, or UNCACHEABLE if my
+     *  rotor settings cannot be packed into a long. */
+    private long cacheConfiguration() {
+        int bits = Integer.SIZE
+            - Integer.numberOfLeadingZeros(_alphabet.size() - 1);
+        if ((long) bits * _rotors.length > Long.SIZE) {
+            return UNCACHEABLE;
+        }
+        _cacheBits = bits;
+        StringBuilder desc = new StringBuilder();
+        for (int c = 0; c < _alphabet.size(); c += 1) {
+            desc.append(_alphabet.toChar(c));
+        }
+        for (Rotor r : _rotors) {
+            desc.append('|');
+            for (int c = 0; c < _alphabet.size(); c += 1) {
+                desc.append((char) r.permutation().permute(c));
             }
         }
-        if (rotorsthatmove != numPawls()) {
-            throw new EnigmaException("Amount of moving rotors wrong!");
+        desc.append('|');
+        for (int c = 0; _plugboard != null && c < _alphabet.size(); c += 1) {
+            desc.append((char) _plugboard.permute(c));
         }
-        String answer = "";
-        msg = msg.toUpperCase();
-        for (int i = 0; i < msg.length(); i++) {
-            try {
-                int in = _alphabet.toInt(msg.charAt(i));
-                char out = _alphabet.toChar(convert(in));
-                answer += out;
-            } catch (EnigmaException excp) {
-                answer += msg.charAt(i);
+        return _cache.configuration(desc.toString());
+    }
+
+    /** As for encode(C), but taking the permutation for the settings
+     *  of my rotors after the step from _cache if it is there, and
+     *  adding it if it is not. */
+    private int encodeCached(int c) {
+        step();
+        long posns = 0;
+        for (int p : _positions) {
+            posns = (posns << _cacheBits) | p;
+        }
+        int[] perm = _cache.get(_cacheConfig, posns);
+        if (perm == null) {
+            perm = new int[_alphabet.size()];
+            for (int k = 0; k < perm.length; k += 1) {
+                perm[k] = transform(k);
             }
+            if (!_cache.put(_cacheConfig, posns, perm)) {
+                _cacheConfig = UNKNOWN;
+            }
+        }
+        return perm[c];
+    }
+
+    /** Return a keystream table positioned at my current settings, if my
+     *  keystream budget allows one, and otherwise null, in preparation
+     *  for about PRESSES keypresses.  No table is built until the
+     *  keypresses made since my settings last changed are enough to pay
+     *  for building one (see keystreamDelay()), so that machines rekeyed
+     *  for every short message do not build tables they hardly use. */
+    private Keystream keystream(long presses) {
+        if (_keystream != null && !_keystream.at(_positions, _keyIndex)) {
+            if (_keystream.at(_positions, 0)) {
+                _keyIndex = 0;
+            } else {
+                _keystream = null;
+            }
+        }
+        if (_cache != null && _cacheConfig == UNKNOWN) {
+            _cacheConfig = cacheConfiguration();
+        }
+        if (_keystream == null && !_keystreamTried && _keystreamBudget > 0) {
+            _pressed += presses;
+            if (_pressed < keystreamDelay()) {
+                return null;
+            }
+            _keystreamTried = true;
+            _keystream = Keystream.build(this, _keystreamBudget);
+            _keyIndex = 0;
+        }
+        return _keystream;
+    }
+
+    /** Return the number of keypresses from one setting after which it
+     *  is worth building a keystream: a fraction of the number of
+     *  positions my moving rotors can take, which bounds the size of the
+     *  table. */
+    private long keystreamDelay() {
+        long positions = 1;
+        for (int i = 0; i < _pawls && positions < KEYSTREAM_BUDGET; i += 1) {
+            positions *= _alphabet.size();
         }
-        return answer;
+        return positions / KEYSTREAM_PAYOFF;
     }
 
+    /** Return the conversion of C (an index in my alphabet) by the next
+     *  keypress, using KEYS, the result of keystream(), if it is not
+     *  null.  Assumes checkPawls() has succeeded. */
+    private int press(Keystream keys, int c) {
+        if (keys == null) {
+            return _cacheConfig >= 0 ? encodeCached(c) : encode(c);
+        }
+        c = keys.convert(_keyIndex, c);
+        _keyIndex = keys.next(_keyIndex);
+        return c;
+    }
 
+    /** Bring the settings of my rotors up to date with the keypresses
+     *  made through KEYS, if it is not null. */
+    private void sync(Keystream keys) {
+        if (keys != null) {
+            keys.restore(_positions, _keyIndex);
+            _slowValid = false;
+        }
+    }
+
+    /** Return true iff each of my rotors has the same setting as the
+     *  corresponding rotor of OTHER. */
+    boolean samePositions(Machine other) {
+        return Arrays.equals(_positions, other._positions);
+    }
+
+    /** Return the error for message character CH, which is not in my
+     *  alphabet under the REJECT policy. */
+    private static EnigmaException notInAlphabet(char ch) {
+        return error("character '%c' is not in the alphabet", ch);
+    }
+
+    /** Return the policy for message characters not in my alphabet. */
+    public CharPolicy policy() {
+        return _policy;
+    }
+
+    /** Treat message characters not in my alphabet according to POLICY. */
+    public void setPolicy(CharPolicy policy) {
+        _policy = policy;
+    }
+
+    /** Return the index in my alphabet of CH or, failing that, of CH in
+     *  upper case.  Returns -1 if neither is in the alphabet. */
+    private int lookup(char ch) {
+        int index = _alphabet.indexOf(ch);
+        if (index < 0) {
+            index = _alphabet.indexOf(Character.toUpperCase(ch));
+        }
+        return index;
+    }
+
+    /** Smallest number of characters convertParallel gives a thread. */
+    static final int MIN_PIECE = 1 << 16;
+
+    /** Number of pieces per thread into which convertParallel divides
+     *  a message, to even out the load. */
+    private static final int PIECES_PER_THREAD = 4;
+
+    /** Value of _cacheConfig before it is determined. */
+    private static final long UNKNOWN = -1;
+
+    /** Value of _cacheConfig when my permutations cannot be cached. */
+    private static final long UNCACHEABLE = -2;
+
+    /** Default cache size used by Main's --cache option. */
+    static final long CACHE_BYTES = 1 << 26;
+
+    /** Default keystream budget used by Main's --keystream option. */
+    static final long KEYSTREAM_BUDGET = 1 << 26;
+
+    /** Result of packedState() for states that do not fit in a long. */
+    public static final long NO_STATE = -1;
+
+    /** Version of the format of state(). */
+    private static final byte STATE_VERSION = 1;
+
+    /** Ratio of the size of a keystream to the number of keypresses
+     *  that justifies building it. */
+    private static final long KEYSTREAM_PAYOFF = 8;
+
+    /** Mask selecting the character held in a byte. */
+    private static final int BYTE_MASK = 0xff;
 
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
@@ -175,8 +983,206 @@ class Machine {
     /** An additional permutation in the plugboard. */
     private Permutation _plugboard;
 
-    /** The rotors inserted in a specific instance of a machine. */
+    /** The rotors inserted in a specific instance of a machine.  They
+     *  are never changed, and may be shared with other machines. */
     private Rotor[] _rotors;
 
+    /** The current setting of each rotor in _rotors. */
+    private int[] _positions;
+
+    /** What to do with message characters outside _alphabet. */
+    private CharPolicy _policy = CharPolicy.PASS;
+
+    /** Cache of my permutations, or null. */
+    private PermutationCache _cache;
+
+    /** My configuration number in _cache, or UNKNOWN or UNCACHEABLE. */
+    private long _cacheConfig = UNKNOWN;
+
+    /** Number of bits given to each rotor setting in a _cache key. */
+    private int _cacheBits;
+
+    /** Number of bytes I may use for a keystream table. */
+    private long _keystreamBudget;
+
+    /** Table of my permutations through one period, or null. */
+    private Keystream _keystream;
+
+    /** Key index in _keystream of my next keypress. */
+    private int _keyIndex;
+
+    /** True iff building _keystream has been attempted since the rotors
+     *  or plugboard last changed. */
+    private boolean _keystreamTried;
+
+    /** Number of keypresses expected from my settings since they last
+     *  changed, while no keystream has been built. */
+    private long _pressed;
+
+    /** The conversion of C by all my rotors but the last, at their
+     *  current settings, is _slow[C], when _slowValid and
+     *  _slowStamps[C] == _slowStamp. */
+    private int[] _slow;
+
+    /** Marks the entries of _slow that are up to date. */
+    private int[] _slowStamps;
+
+    /** Value in _slowStamps of the entries of _slow that are up to
+     *  date. */
+    private int _slowStamp;
+
+    /** True iff _slow is up to date. */
+    private boolean _slowValid;
+
+    /** The available rotors of a configuration, indexed for the selection
+     *  of rotors by name, together with the plugboards requested so far.
+     *  Shared by a machine and all its forks. */
+    private static final class Catalog {
+
+        /** A catalog of ROTORS. */
+        Catalog(Collection<Rotor> rotors) {
+            for (Rotor r : rotors) {
+                _byName.put(r.name().toUpperCase(), r);
+                _ordinals.put(r, _rotors.size());
+                _rotors.add(r);
+            }
+        }
+
+        /** Return the number of rotors. */
+        int size() {
+            return _rotors.size();
+        }
+
+        /** Return the rotor named NAME, ignoring case, or null. */
+        Rotor rotor(String name) {
+            Rotor result = _byName.get(name);
+            return result != null ? result : _byName.get(name.toUpperCase());
+        }
+
+        /** Return the number of rotor R, in the range 0 .. size() - 1. */
+        int ordinal(Rotor r) {
+            return _ordinals.get(r);
+        }
+
+        /** Return the rotor numbered K. */
+        Rotor rotor(int k) {
+            if (k < 0 || k >= _rotors.size()) {
+                throw error("invalid machine state");
+            }
+            return _rotors.get(k);
+        }
+
+        /** Return the number registered for plugboards permuting as
+         *  PLUGBOARD does, registering it if there is none.  Only the
+         *  PLUGBOARDS most recently used registrations are kept, and
+         *  numbers are not reused. */
+        synchronized int register(Permutation plugboard) {
+            String key = table(plugboard);
+            Integer id = _plugboardIds.get(key);
+            if (id != null) {
+                _registered.get(id);
+                return id;
+            }
+            if (_nextId == Integer.MAX_VALUE) {
+                _registered.clear();
+                _plugboardIds.clear();
+                _nextId = 0;
+            }
+            id = _nextId;
+            _nextId += 1;
+            _plugboardIds.put(key, id);
+            _registered.put(id, plugboard);
+            return id;
+        }
+
+        /** Return true iff PLUGBOARD is still registered as number ID. */
+        synchronized boolean holds(int id, Permutation plugboard) {
+            return id >= 0 && _registered.get(id) == plugboard;
+        }
+
+        /** Return the plugboard registered as number ID. */
+        synchronized Permutation registered(int id) {
+            Permutation result = _registered.get(id);
+            if (result == null) {
+                throw error("invalid machine state");
+            }
+            return result;
+        }
+
+        /** Return the table of PLUGBOARD as a string. */
+        private static String table(Permutation plugboard) {
+            char[] result = new char[plugboard.size()];
+            for (int c = 0; c < result.length; c += 1) {
+                result[c] = (char) plugboard.permute(c);
+            }
+            return new String(result);
+        }
+
+        /** Return the permutation of ALPHABET given by CYCLES. */
+        Permutation plugboard(String cycles, Alphabet alphabet) {
+            Permutation result = _plugboards.get(cycles);
+            if (result == null) {
+                if (_plugboards.size() >= PLUGBOARDS) {
+                    _plugboards.clear();
+                }
+                result = new Permutation(cycles, alphabet);
+                _plugboards.put(cycles, result);
+            }
+            return result;
+        }
+
+        /** Maximum number of plugboards remembered. */
+        private static final int PLUGBOARDS = 4096;
+
+        /** Rotors in order of their numbers. */
+        private final ArrayList<Rotor> _rotors = new ArrayList<>();
+
+        /** Rotors by upper-case name. */
+        private final HashMap<String, Rotor> _byName = new HashMap<>();
+
+        /** Numbers of the rotors. */
+        private final IdentityHashMap<Rotor, Integer> _ordinals =
+            new IdentityHashMap<>();
+
+        /** Plugboards by cycles. */
+        private final ConcurrentHashMap<String, Permutation> _plugboards =
+            new ConcurrentHashMap<>();
+
+        /** Plugboards registered for machine states, by number, least
+         *  recently used first. */
+        private final LinkedHashMap<Integer, Permutation> _registered =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                    Map.Entry<Integer, Permutation> eldest) {
+                    if (size() <= PLUGBOARDS) {
+                        return false;
+                    }
+                    _plugboardIds.remove(table(eldest.getValue()));
+                    return true;
+                }
+            };
+
+        /** Number for the next plugboard registered. */
+        private int _nextId;
+
+        /** Numbers of registered plugboards, by their tables. */
+        private final HashMap<String, Integer> _plugboardIds =
+            new HashMap<>();
+    }
+
+    /** Number of _plugboard registered with _catalog, or -1 if not yet
+     *  known. */
+    private int _plugboardId = -1;
+
+    /** Index of my available rotors, shared with my forks. */
+    private final Catalog _catalog;
+
+    /** _stamps[K] == _stamp iff the rotor numbered K in _catalog is in the
+     *  rotor selection being checked by insertRotors. */
+    private int[] _stamps;
+
+    /** Current value marking rotors in _stamps. */
+    private int _stamp;
 
 }
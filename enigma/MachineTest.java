@@ -5,6 +5,9 @@ import org.junit.Rule;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Arrays;
@@ -87,10 +90,473 @@ public class MachineTest {
     }
 
 
-    private String getSetting(Alphabet alph, Rotor[] machineRotors) {
+    /** Set machine to the NAVALA machine B BETA III IV I at AXLE with
+     *  plugboard (HQ) (EX) (IP) (TR) (BY). */
+    private void setHiawathaMachine() {
+        allRotors.add(new FixedRotor("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        allRotors.add(new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        allRotors.add(new MovingRotor("III",
+                new Permutation(NAVALA.get("III"), UPPER), "V"));
+        allRotors.add(new MovingRotor("IV",
+                new Permutation(NAVALA.get("IV"), UPPER), "J"));
+        allRotors.add(new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "Q"));
+        machine = new Machine(UPPER, 5, 3, allRotors);
+        machine.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        machine.setPlugboard(
+                new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER));
+    }
+
+    @Test
+    public void checkCharPolicies() {
+        setHiawathaMachine();
+        machine.setPolicy(CharPolicy.STRIP);
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     machine.convert("From his, shoulder Hiawatha!"));
+        machine.setRotors("AXLE");
+        machine.setPolicy(CharPolicy.PASS);
+        assertEquals("QVPQ SOK, OILPUBKJ ZPISFXDW!",
+                     machine.convert("From his, shoulder Hiawatha!"));
+        machine.setRotors("AXLE");
+        machine.setPolicy(CharPolicy.REJECT);
+        try {
+            machine.convert("From his, shoulder Hiawatha!");
+            fail("non-alphabetic message accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                         machine.convert("FromhisshoulderHiawatha"));
+        }
+    }
+
+    @Test
+    public void checkBulkConvert() {
+        setHiawathaMachine();
+        String expected = machine.convert("FROM HIS shoulder Hiawatha");
+
+        machine.setRotors("AXLE");
+        char[] buf = "..FROM HIS shoulder Hiawatha".toCharArray();
+        assertEquals(26, machine.convert(buf, 2, buf, 0, 26));
+        assertEquals(expected, new String(buf, 0, 26));
+
+        machine.setRotors("AXLE");
+        CharBuffer out = CharBuffer.allocate(10);
+        CharBuffer in = CharBuffer.wrap("FROM HIS shoulder Hiawatha");
+        StringBuilder result = new StringBuilder();
+        while (in.hasRemaining()) {
+            machine.convert(in, out);
+            out.flip();
+            result.append(out);
+            out.clear();
+        }
+        assertEquals(expected, result.toString());
+
+        machine.setRotors("AXLE");
+        ByteBuffer bytes =
+            ByteBuffer.wrap("FROM HIS shoulder Hiawatha".getBytes());
+        machine.convert(bytes.duplicate(), bytes);
+        assertEquals(expected, new String(bytes.array()));
+
+        machine.setRotors("AXLE");
+        bytes = ByteBuffer.wrap("FROM HIS \u00ff".getBytes(
+            StandardCharsets.ISO_8859_1));
+        try {
+            machine.convert(bytes, ByteBuffer.allocate(20));
+            fail("unencodable upper case accepted");
+        } catch (EnigmaException excp) {
+            assertEquals(0, bytes.position());
+            assertEquals(expected.substring(0, 8),
+                         machine.convert("FROM HIS"));
+        }
+    }
+
+    /** Return a machine over alphabet ALPH with rotors, reflector first,
+     *  described by SPECS.  Each spec is "R" for a reflector, "N" for a
+     *  fixed rotor, or "M" followed by notches for a moving rotor.  All
+     *  rotors share the permutation CYCLES. */
+    private Machine makeMachine(Alphabet alph, String cycles,
+                                String... specs) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[specs.length];
+        int pawls = 0;
+        for (int i = 0; i < specs.length; i += 1) {
+            names[i] = "R" + i;
+            Permutation perm = new Permutation(cycles, alph);
+            if (specs[i].equals("R")) {
+                rotors.add(new Reflector(names[i], perm));
+            } else if (specs[i].equals("N")) {
+                rotors.add(new FixedRotor(names[i], perm));
+            } else {
+                rotors.add(new MovingRotor(names[i], perm,
+                                           specs[i].substring(1)));
+                pawls += 1;
+            }
+        }
+        Machine result = new Machine(alph, specs.length, pawls, rotors);
+        result.insertRotors(names);
+        return result;
+    }
+
+    @Test
+    public void checkAdvance() {
+        Alphabet alph = new Alphabet("ABCDEF");
+        String[][] configs = {
+            {"R", "N", "MA", "MAD", "MC"},
+            {"R", "MB", "MBE", "MF"},
+            {"R", "MAC", "MAE", "MBDF", "MF"},
+            {"R", "MAB", "MCD", "MEF"},
+            {"MA", "MA", "MBC", "MCE"},
+        };
+        java.util.Random random = new java.util.Random(61);
+        for (String[] config : configs) {
+            for (int trial = 0; trial < 40; trial += 1) {
+                Machine stepped = makeMachine(alph, "(AB) (CD) (EF)", config);
+                Machine jumped = makeMachine(alph, "(AB) (CD) (EF)", config);
+                StringBuilder setting = new StringBuilder();
+                for (int i = 1; i < config.length; i += 1) {
+                    setting.append(alph.toChar(random.nextInt(6)));
+                }
+                stepped.setRotors(setting.toString());
+                jumped.setRotors(setting.toString());
+                int n = random.nextInt(400);
+                for (int k = 0; k < n; k += 1) {
+                    stepped.convert(0);
+                }
+                jumped.advance(n);
+                assertEquals(msg(String.join(" ", config),
+                                 "advance %d from %s", n, setting),
+                             getSetting(alph, stepped.settings()),
+                             getSetting(alph, jumped.settings()));
+            }
+        }
+    }
+
+    @Test
+    public void checkConvertParallel() {
+        StringBuilder text = new StringBuilder();
+        java.util.Random random = new java.util.Random(61);
+        while (text.length() < 5 * Machine.MIN_PIECE) {
+            text.append(random.nextInt(8) == 0 ? ' '
+                        : (char) ('A' + random.nextInt(26)));
+        }
+        String msg = text.toString();
+        for (CharPolicy policy : CharPolicy.values()) {
+            if (policy == CharPolicy.REJECT) {
+                msg = msg.replace(" ", "");
+            }
+            setHiawathaMachine();
+            machine.setPolicy(policy);
+            String expected = machine.convert(msg);
+            String setting = getSetting(UPPER, machine.settings());
+            machine.setRotors("AXLE");
+            assertEquals(msg("parallel", "%s", policy),
+                         expected, machine.convertParallel(msg));
+            assertEquals(setting,
+                         getSetting(UPPER, machine.settings()));
+        }
+        machine.setRotors("AXLE");
+        String start = getSetting(UPPER, machine.settings());
+        try {
+            machine.convertParallel(msg + " ");
+            fail("non-alphabetic message accepted");
+        } catch (EnigmaException excp) {
+            assertEquals(start, getSetting(UPPER, machine.settings()));
+        }
+    }
+
+    @Test
+    public void checkPeriod() {
+        setHiawathaMachine();
+        assertEquals(26 * 25 * 26, machine.period());
+        Alphabet alph = new Alphabet("ABCDEF");
+        String[][] configs = {
+            {"R", "N", "MA", "MAD", "MC"},
+            {"R", "MAC", "MAE", "MBDF", "MF"},
+            {"MA", "MA", "MBC", "MCE"},
+        };
+        for (String[] config : configs) {
+            Machine m = makeMachine(alph, "(AB) (CD) (EF)", config);
+            m.setRotors("ABCDEF".substring(0, config.length - 1));
+            java.util.HashMap<String, Integer> seen = new java.util.HashMap<>();
+            int k;
+            for (k = 0; !seen.containsKey(getSetting(alph,
+                                                      m.settings()));
+                 k += 1) {
+                seen.put(getSetting(alph, m.settings()), k);
+                m.convert(0);
+            }
+            int period = k - seen.get(getSetting(alph, m.settings()));
+            m.setRotors("ABCDEF".substring(0, config.length - 1));
+            assertEquals(String.join(" ", config), period, m.period());
+        }
+    }
+
+    @Test
+    public void checkKeystream() {
+        Alphabet alph = new Alphabet("ABCDEF");
+        String[][] configs = {
+            {"R", "N", "MA", "MAD", "MC"},
+            {"R", "MAB", "MCD", "MEF"},
+            {"MA", "MA", "MBC", "MCE"},
+        };
+        java.util.Random random = new java.util.Random(61);
+        char[] msg = new char[5000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = alph.toChar(random.nextInt(6));
+        }
+        String text = new String(msg);
+        for (String[] config : configs) {
+            Machine plain = makeMachine(alph, "(AB) (CD) (EF)", config);
+            Machine table = makeMachine(alph, "(AB) (CD) (EF)", config);
+            table.setKeystreamBudget(1 << 20);
+            String setting = "BCDEF".substring(0, config.length - 1);
+            for (Machine m : new Machine[] { plain, table }) {
+                m.setPlugboard(new Permutation("(AF) (BD)", alph));
+                m.setRotors(setting);
+            }
+            String name = String.join(" ", config);
+            assertEquals(name, plain.convert(text), table.convert(text));
+            for (int trial = 0; trial < 20; trial += 1) {
+                int n = random.nextInt(10000);
+                plain.advance(n);
+                table.advance(n);
+                assertEquals(msg(name, "after advance %d", n),
+                             getSetting(alph, plain.settings()),
+                             getSetting(alph, table.settings()));
+                assertEquals(plain.convert(0), table.convert(0));
+                assertEquals(plain.convert(text.substring(trial)),
+                             table.convert(text.substring(trial)));
+            }
+        }
+    }
+
+    @Test
+    public void checkForkKeystream() {
+        Alphabet alph = new Alphabet("ABCDEF");
+        String[] config = {"R", "MAB", "MCD", "MEF"};
+        Machine plain = makeMachine(alph, "(AB) (CD) (EF)", config);
+        Machine budgeted = makeMachine(alph, "(AB) (CD) (EF)", config);
+        budgeted.setKeystreamBudget(1 << 20);
+        for (Machine m : new Machine[] { plain, budgeted }) {
+            m.setPlugboard(new Permutation("(AF) (BD)", alph));
+            m.setRotors("BCD");
+        }
+        char[] msg = new char[5000];
+        for (int i = 0; i < msg.length; i += 1) {
+            msg[i] = alph.toChar(i * 7 % 6);
+        }
+        String text = new String(msg);
+        Machine fork = budgeted.fork();
+        assertFalse(fork.usingKeystream());
+        assertEquals(plain.convert(text), fork.convert(text));
+        assertTrue(fork.usingKeystream());
+        assertFalse(budgeted.usingKeystream());
+        Machine second = fork.fork();
+        assertTrue(second.usingKeystream());
+        assertEquals(plain.convert(text), second.convert(text));
+    }
+
+    @Test
+    public void checkPermutationCache() {
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        setHiawathaMachine();
+        String expected = machine.convert(msg);
+        PermutationCache cache = new PermutationCache(1 << 20);
+        for (int trial = 1; trial <= 3; trial += 1) {
+            setHiawathaMachine();
+            machine.setPermutationCache(cache);
+            assertEquals(expected, machine.convert(msg));
+            assertEquals(msg.length(), cache.misses());
+            assertEquals((trial - 1) * msg.length(), cache.hits());
+        }
+        assertEquals(1, cache.configurations());
+        long config = cache.bytes() - cache.size() * (26 * 4 + 96);
+        cache = new PermutationCache(10 * (26 * 4 + 96) + config);
+        setHiawathaMachine();
+        machine.setPermutationCache(cache);
+        assertEquals(expected, machine.convert(msg));
+        assertEquals(10, cache.size());
+        assertEquals(msg.length() - 10, cache.evictions());
+    }
+
+    @Test
+    public void checkPermutationCacheRekeyed() {
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        setHiawathaMachine();
+        long capacity = 20000;
+        PermutationCache cache = new PermutationCache(capacity);
+        machine.setPermutationCache(cache);
+        Machine plain = machine.fork();
+        plain.setPermutationCache(null);
+        for (int k = 0; k < 300; k += 1) {
+            String cycles = String.format("(%c%c)", 'A' + k % 13,
+                                          'N' + k / 13 % 13);
+            for (Machine m : new Machine[] { machine, plain }) {
+                m.setRotors("AXLE");
+                m.setPlugboard(new Permutation(cycles, UPPER));
+            }
+            assertEquals(cycles, plain.convert(msg), machine.convert(msg));
+            assertTrue(cache.bytes() <= capacity);
+        }
+        assertTrue(cache.configurations() < 10);
+        cache.clear();
+        assertEquals(0, cache.configurations());
+        machine.convert(msg);
+        machine.convert(msg);
+        assertEquals(1, cache.configurations());
+        assertTrue(cache.size() > 0);
+    }
+
+    @Test
+    public void checkSharedRotors() {
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        setHiawathaMachine();
+        String expected = machine.convert(msg);
+        machine.setRotors("AXLE");
+        Machine other = new Machine(UPPER, 5, 3, allRotors);
+        other.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        other.setRotors("AXLE");
+        other.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                           UPPER));
+        Machine fork = machine.fork();
+        StringBuilder[] results = {
+            new StringBuilder(), new StringBuilder(), new StringBuilder()
+        };
+        for (int i = 0; i < msg.length(); i += 1) {
+            String ch = msg.substring(i, i + 1);
+            results[0].append(machine.convert(ch));
+            results[1].append(other.convert(ch));
+            results[2].append(fork.convert(ch));
+        }
+        for (StringBuilder result : results) {
+            assertEquals(expected, result.toString());
+        }
+    }
+
+    @Test
+    public void checkRekeying() {
+        allRotors.add(new Reflector("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        allRotors.add(new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        String[] names = {"I", "II", "III", "IV"};
+        String[] notches = {"Q", "E", "V", "J"};
+        for (int i = 0; i < names.length; i += 1) {
+            allRotors.add(new MovingRotor(names[i],
+                new Permutation(NAVALA.get(names[i]), UPPER), notches[i]));
+        }
+        machine = new Machine(UPPER, 5, 3, allRotors);
+        machine.setKeystreamBudget(Machine.KEYSTREAM_BUDGET);
+        String hiawatha = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        Machine other = new Machine(UPPER, 5, 3, allRotors);
+        Main.setUp(other, "* B BETA II IV I AXLE (AB)");
+        String expected = other.convert("FROMHISSHOULDERHIAWATHA");
+        for (int k = 0; k < 3; k += 1) {
+            Main.setUp(machine, hiawatha);
+            assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                         machine.convert("FROMHISSHOULDERHIAWATHA"));
+            Main.setUp(machine, "*  b  beta II IV I   AXLE  (AB)");
+            assertEquals(expected,
+                         machine.convert("FROMHISSHOULDERHIAWATHA"));
+        }
+        try {
+            Main.setUp(machine, "* B Beta III III I AXLE");
+            fail("repeated rotor accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            Main.setUp(machine, "* B Beta III IV");
+            fail("missing rotor accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+
+        Machine small = new Machine(UPPER, 3, 2, allRotors);
+        Main.setUp(small, "* B III I AX (HQ) (EX)");
+        Machine manual = new Machine(UPPER, 3, 2, allRotors);
+        manual.insertRotors(new String[] {"B", "III", "I"});
+        manual.setRotors("AX");
+        manual.setPlugboard(new Permutation("(HQ) (EX)", UPPER));
+        assertEquals(manual.convert("HIAWATHA"), small.convert("HIAWATHA"));
+    }
+
+    @Test
+    public void checkState() {
+        setHiawathaMachine();
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+        String expected = machine.convert(msg);
+        machine.setRotors("AXLE");
+        String head = machine.convert(msg.substring(0, 20));
+        long packed = machine.packedState();
+        byte[] saved = machine.state();
+        assertTrue(packed >= 0);
+        String tail = machine.convert(msg.substring(20));
+        assertEquals(expected, head + tail);
+
+        machine.insertRotors(new String[] {"B", "BETA", "I", "IV", "III"});
+        machine.setPlugboard(new Permutation("(AB)", UPPER));
+        machine.restore(packed);
+        assertEquals(tail, machine.convert(msg.substring(20)));
+        machine.restore(packed);
+        assertEquals(packed, machine.packedState());
+
+        Machine other = new Machine(UPPER, 5, 3, allRotors);
+        other.restore(saved);
+        assertEquals(packed, other.fork().packedState());
+        assertEquals(tail, other.convert(msg.substring(20)));
+        try {
+            other.restore(Arrays.copyOf(saved, 10));
+            fail("truncated state accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void checkPackedStateRegistrations() {
+        setHiawathaMachine();
+        Permutation first = new Permutation("(AN)", UPPER);
+        machine.setPlugboard(first);
+        long oldest = machine.packedState();
+        String expected = machine.fork().convert("FROMHISSHOULDER");
+        long latest = oldest;
+        int boards = 0;
+        for (char a = 'B'; boards < 5000; a += 1) {
+            for (char b = (char) (a + 1); b <= 'Z' && boards < 5000;
+                 b += 1) {
+                for (char c = 'B'; c <= 'Z' && boards < 5000; c += 1) {
+                    if (c != a && c != b) {
+                        machine.setPlugboard(new Permutation(
+                            String.format("(%c%c) (A%c)", a, b, c), UPPER));
+                        latest = machine.packedState();
+                        boards += 1;
+                    }
+                }
+            }
+        }
+        machine.restore(latest);
+        assertEquals(latest, machine.packedState());
+        try {
+            machine.restore(oldest);
+            fail("forgotten plugboard restored");
+        } catch (EnigmaException excp) {
+            assertEquals("invalid machine state", excp.getMessage());
+        }
+        machine.setPlugboard(first);
+        long again = machine.packedState();
+        assertTrue(again != oldest);
+        machine.setPlugboard(new Permutation("(AB)", UPPER));
+        machine.restore(again);
+        assertEquals(expected, machine.convert("FROMHISSHOULDER"));
+    }
+
+    private String getSetting(Alphabet alph, int[] settings) {
         String thisSetting = "";
-        for (Rotor r : machineRotors) {
-            thisSetting += alph.toChar(r.setting());
+        for (int posn : settings) {
+            thisSetting += alph.toChar(posn);
         }
         return thisSetting;
     }
@@ -112,13 +578,13 @@ public class MachineTest {
                 new ArrayList<>(Arrays.asList(machineRotors)));
         myMachine.insertRotors(rotors);
         myMachine.setRotors(setting);
-        assertEquals("AAAA", getSetting(alph, machineRotors));
+        assertEquals("AAAA", getSetting(alph, myMachine.settings()));
         myMachine.convert('A');
-        assertEquals("AAAB", getSetting(alph, machineRotors));
+        assertEquals("AAAB", getSetting(alph, myMachine.settings()));
         myMachine.convert('A');
-        assertEquals("AAAC", getSetting(alph, machineRotors));
+        assertEquals("AAAC", getSetting(alph, myMachine.settings()));
         myMachine.convert('A');
-        assertEquals("AABA", getSetting(alph, machineRotors));
+        assertEquals("AABA", getSetting(alph, myMachine.settings()));
     }
 
 
@@ -1,12 +1,19 @@
 package enigma;
 
-import java.io.File;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
-import java.util.ArrayList;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.List;
 
 import static enigma.EnigmaException.*;
 
@@ -15,15 +22,36 @@ import static enigma.EnigmaException.*;
  */
 public final class Main {
 
-    /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
-     *  ARGS[0] is the name of a configuration file.
-     *  ARGS[1] is optional; when present, it names an input file
-     *  containing messages.  Otherwise, input comes from the standard
-     *  input.  ARGS[2] is optional; when present, it names an output
-     *  file for processed messages.  Otherwise, output goes to the
-     *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+    /** Usage message listing the command-line options. */
+    static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: java enigma.Main [OPTION...] CONFIG [INPUT [OUTPUT]]",
+        "  --pass, --strip, --reject",
+        "        keep, drop, or refuse message characters that are not in",
+        "        the alphabet (see CharPolicy); --pass is the default",
+        "  --mmap         read and write INPUT and OUTPUT (both required)",
+        "                 through memory mappings",
+        "  --pipeline     read, convert, and write on separate threads",
+        "  --parallel     divide long messages among all processors",
+        "  --sections     convert the sections beginning with each",
+        "                 settings line concurrently; not with --pipeline",
+        "                 or --parallel",
+        "  --keystream    convert with a table of a whole period of",
+        "                 permutations when it fits in",
+        "                 Machine.KEYSTREAM_BUDGET bytes",
+        "  --cache        reuse the permutations at each rotor position",
+        "                 from a PermutationCache",
+        "  --serve        INPUT is a port (0 for any free port) on which",
+        "                 to serve clients on the loopback interface",
+        "  --batch        INPUT is a directory or manifest of message",
+        "                 files, converted concurrently (see Batch),",
+        "                 with a summary for each file on the standard",
+        "                 output; not with --sections or --parallel",
+        "  --config-cache DIR",
+        "                 keep compiled configurations in DIR");
+
+    /** Process a sequence of encryptions and decryptions, as specified
+     *  by the options and files in ARGS (see USAGE).  Exits normally if
+     *  there are no errors; otherwise with code 1. */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -34,40 +62,145 @@ public final class Main {
         System.exit(1);
     }
 
-    /** Check ARGS and open the necessary files (see comment on main). */
+    /** Check ARGS and open the necessary files (see USAGE). */
     Main(String[] args) {
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            if (args[first].equals("--config-cache")) {
+                if (first + 1 == args.length) {
+                    throw error("--config-cache requires a directory");
+                }
+                _configCache = Paths.get(args[first + 1]);
+                first += 2;
+                continue;
+            }
+            option(args[first]);
+            first += 1;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
         if (args.length < 1 || args.length > 3) {
-            throw error("Only 1, 2, or 3 command-line arguments allowed");
+            throw error("Only 1, 2, or 3 command-line arguments allowed%n%s",
+                        USAGE);
         }
 
         _config = getInput(args[0]);
+        _configName = args[0];
+
+        if (_serving) {
+            if (args.length != 2) {
+                throw error("--serve requires a configuration and a port");
+            }
+            try {
+                _port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException excp) {
+                throw error("bad port number: %s", args[1]);
+            }
+            return;
+        }
+
+        if (_batched) {
+            if (_sectioned || _parallel) {
+                throw error("--batch cannot be combined with --sections "
+                            + "or --parallel");
+            }
+            if (args.length != 2) {
+                throw error("--batch requires a configuration and a "
+                            + "directory or manifest");
+            }
+            _batchSource = Paths.get(args[1]);
+            return;
+        }
+
+        if (_sectioned && (_pipelined || _parallel)) {
+            throw error("--sections cannot be combined with --pipeline "
+                        + "or --parallel");
+        }
+
+        if (_mapped && args.length != 3) {
+            throw error("--mmap requires input and output files");
+        }
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _input = getReader(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _input = new InputStreamReader(System.in);
         }
 
         if (args.length > 2) {
-            _output = getOutput(args[2]);
-        } else {
-            _output = System.out;
+            _outputName = args[2];
+        }
+    }
+
+    /** Record the command-line option OPT. */
+    private void option(String opt) {
+        switch (opt) {
+        case "--pass":
+            _policy = CharPolicy.PASS;
+            break;
+        case "--strip":
+            _policy = CharPolicy.STRIP;
+            break;
+        case "--reject":
+            _policy = CharPolicy.REJECT;
+            break;
+        case "--mmap":
+            _mapped = true;
+            break;
+        case "--pipeline":
+            _pipelined = true;
+            break;
+        case "--parallel":
+            _parallel = true;
+            break;
+        case "--sections":
+            _sectioned = true;
+            break;
+        case "--keystream":
+            _keystream = true;
+            break;
+        case "--cache":
+            _cached = true;
+            break;
+        case "--serve":
+            _serving = true;
+            break;
+        case "--batch":
+            _batched = true;
+            break;
+        default:
+            throw error("unknown option %s%n%s", opt, USAGE);
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** Return the contents of the file named NAME. */
+    private String getInput(String name) {
         try {
-            return new Scanner(new File(name));
+            return new String(Files.readAllBytes(Paths.get(name)));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a Reader reading from the file named NAME. */
+    private Reader getReader(String name) {
         try {
-            return new PrintStream(new File(name));
+            if (_mapped) {
+                return new MappedReader(name);
+            }
+            return new InputStreamReader(new FileInputStream(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a Writer writing to the file named NAME. */
+    private Writer getOutput(String name) {
+        try {
+            if (_mapped) {
+                return new MappedWriter(name);
+            }
+            return new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(name)));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -75,172 +208,189 @@ public final class Main {
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
+     *  results to the file named _outputName, or to the standard output
+     *  if it is null.  The output file is created only once the machine
+     *  is configured. */
+    void process() {
         Machine enigma = readConfig();
-        String result;
-        String msg;
-        boolean begin = true;
-
-        while (_input.hasNextLine()) {
-            String nextInput = _input.nextLine().trim();
-            if (begin) {
-                begin = false;
-                if (nextInput.charAt(0) != '*') {
-                    throw error("setting is incorrect");
-                }
-            }
-            if (nextInput.startsWith("*")) {
-                setUp(enigma, nextInput);
-            } else {
-                msg = nextInput.toUpperCase();
+        enigma.setPolicy(_policy);
+        if (_keystream) {
+            enigma.setKeystreamBudget(Machine.KEYSTREAM_BUDGET);
+        }
+        if (_cached) {
+            enigma.setPermutationCache(
+                new PermutationCache(Machine.CACHE_BYTES));
+        }
+        if (_serving) {
+            serve(enigma);
+            return;
+        }
+        if (_batched) {
+            batch(enigma);
+            return;
+        }
+        Writer output;
+        if (_outputName != null) {
+            output = getOutput(_outputName);
+        } else {
+            output = new BufferedWriter(new OutputStreamWriter(System.out));
+        }
+        try {
+            convert(enigma, _input, output);
+        } finally {
+            if (_outputName != null) {
                 try {
-                    result = enigma.convert(msg);
-                    printMessageLine(result);
-                } catch (EnigmaException excp) {
-                    throw new EnigmaException("Message could"
-                            + "not be converted!");
+                    output.close();
+                } catch (IOException excp) {
+                    throw error("could not write output: %s",
+                                excp.getMessage());
                 }
             }
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Apply MACHINE to the messages in INPUT, sending the results to
+     *  OUTPUT, which is flushed but not closed. */
+    private void convert(Machine machine, Reader input, Writer output) {
+        Pipeline pipeline =
+            _pipelined ? new Pipeline(input, output) : null;
+        GroupWriter groups =
+            new GroupWriter(_pipelined ? pipeline.sink() : output);
+        Transcriber transcriber =
+            new Transcriber(machine, line -> setUp(machine, line), groups,
+                            _parallel);
         try {
-            String alphabet = _config.nextLine();
-            _alphabet = new Alphabet(alphabet);
-            if (!_config.hasNextInt()) {
-                throw new EnigmaException("Format of config wrong");
-            }
-            int numberofRotors = _config.nextInt();
-            if (!_config.hasNextInt()) {
-                throw new EnigmaException("Format of config wrong");
-            }
-            int pawls = _config.nextInt();
-            next = (_config.next()).toUpperCase();
-            while (_config.hasNext()) {
-                currentRotorName = next;
-                currentRotorNotches = (_config.next()).toUpperCase();
-                Rotor r = readRotor();
-                _allRotors.add(r);
+            if (_sectioned) {
+                new ParallelTranscriber(machine, Main::setUp, output)
+                    .transcribe(input);
+            } else if (_pipelined) {
+                pipeline.transcribe(transcriber);
+            } else {
+                transcriber.transcribe(input);
             }
-            return new Machine(_alphabet, numberofRotors, pawls, _allRotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
-        }
-    }
-
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
-        try {
-            perm = "";
-            next = (_config.next()).toUpperCase();
-            while (next.contains("(") && _config.hasNext()) {
-                if (!next.contains(")")) {
-                    throw new EnigmaException("This format is wrong!");
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        } finally {
+            try {
+                groups.flush();
+                if (_pipelined) {
+                    pipeline.close();
                 }
-
-                perm = perm.concat(next + " ");
-                next = (_config.next().toUpperCase());
-            }
-            if (!_config.hasNext()) {
-                perm = perm.concat(next + " ");
+            } catch (IOException excp) {
+                throw error("could not write output: %s", excp.getMessage());
             }
-            if (currentRotorNotches.charAt(0) == 'M') {
-                return new MovingRotor(currentRotorName,
-                        new Permutation(perm, _alphabet),
-                        currentRotorNotches.substring(1));
-            } else if (currentRotorNotches.charAt(0) == 'N') {
-                return new FixedRotor(currentRotorName,
-                        new Permutation(perm, _alphabet));
-            } else {
-                return new Reflector(currentRotorName,
-                        new Permutation(perm, _alphabet));
-            }
-        } catch (NoSuchElementException exception) {
-            throw error("bad rotor description");
         }
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        String[] set = settings.split(" ");
-        if (set.length - 1 < M.numRotors()) {
-            throw new EnigmaException("Not enough arguments here");
+    /** Apply MACHINE to the messages in the file INPUT, sending the
+     *  results to the file OUTPUT. */
+    private void convert(Machine machine, Path input, Path output)
+        throws IOException {
+        try (Reader in = getReader(input.toString());
+             Writer out = getOutput(output.toString())) {
+            convert(machine, in, out);
         }
+    }
 
-        String[] rotors = new String[M.numRotors()];
-        for (int i = 1; i < M.numRotors() + 1; i++) {
-            rotors[i - 1] = set[i];
-        }
-        for (int i = 0; i < rotors.length - 1; i++) {
-            for (int j = i + 1; j < rotors.length; j++) {
-                if (rotors[i].equals(rotors[j])) {
-                    throw new EnigmaException("Rotor cannot be used again!");
-                }
-            }
-        }
-        String strng = "";
-        for (int i = 7; i < set.length; i++) {
-            strng = strng.concat(set[i] + " ");
+    /** Convert the message files given by _batchSource with forks of
+     *  MACHINE, one per available processor at a time, reporting the
+     *  outcomes on the standard output. */
+    private void batch(Machine machine) {
+        List<Path> inputs;
+        try {
+            inputs = Batch.inputs(_batchSource, Paths.get(_configName));
+        } catch (IOException excp) {
+            throw error("could not read %s", _batchSource);
         }
-        M.insertRotors(rotors);
-        if (!M.retrieveRotors()[0].reflecting()) {
-            throw new EnigmaException("First rotor should reflect");
+        Batch files = new Batch(machine, this::convert,
+                                Runtime.getRuntime().availableProcessors());
+        List<Batch.Result> results = files.run(inputs);
+        Batch.report(results, files.elapsed(), System.out);
+        long failed =
+            results.stream().filter(r -> r.error() != null).count();
+        if (failed > 0) {
+            throw error("%d of %d files failed", failed, results.size());
         }
+    }
+
+    /** Run a Server on _port whose sessions use forks of MACHINE, until
+     *  the process is killed, reporting its port on the standard output
+     *  and its statistics on the standard error when it ends. */
+    private void serve(Machine machine) {
         try {
-            M.setRotors(set[M.numRotors() + 1]);
-        } catch (IndexOutOfBoundsException excp) {
-            throw new EnigmaException("Rotor name is wrong");
+            Server server = new Server(machine, _port);
+            System.out.printf("listening on port %d%n", server.port());
+            System.out.flush();
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                System.err.printf("%s%n", server)));
+            server.await();
+        } catch (IOException excp) {
+            throw error("could not serve on port %d: %s", _port,
+                        excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
         }
-        M.setPlugboard(new Permutation(strng, _alphabet));
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        msg = msg.trim().replaceAll("\\s+", "");
-        String result = "";
-        int i = 0;
-        while (i < msg.length()) {
-            if (i % 5 == 0) {
-                result += " ";
-            }
-            result = result + msg.substring(i, i + 1);
-            i = i + 1;
-        }
-        _output.println(result.trim());
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config. */
+    private Machine readConfig() {
+        return Config.load(_config, _configCache).newMachine();
     }
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
+    /** Set M according to the specification given on SETTINGS,
+     *  which must have the format specified in the assignment. */
+    static void setUp(Machine M, String settings) {
+        M.setUp(settings);
+    }
 
-    /** Source of input messages. */
-    private Scanner _input;
+    /** Treatment of message characters outside the alphabet. */
+    private CharPolicy _policy = CharPolicy.PASS;
+
+    /** True iff message files are to be memory-mapped. */
+    private boolean _mapped;
+
+    /** True iff reading, conversion, and writing are to overlap. */
+    private boolean _pipelined;
+
+    /** True iff long messages are to be converted in parallel. */
+    private boolean _parallel;
+
+    /** True iff sections of the input are to be converted
+     *  concurrently. */
+    private boolean _sectioned;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
+    /** True iff messages are to be converted using keystream tables. */
+    private boolean _keystream;
 
-    /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    /** True iff permutations are to be cached. */
+    private boolean _cached;
 
-    /** A perm in the format STRING. */
-    private String perm;
+    /** True iff a directory or manifest of files is to be converted. */
+    private boolean _batched;
 
-    /** A STRING that represents the current
-     * Rotor that the code is looking at. */
-    private String currentRotorName;
+    /** Directory or manifest of files for --batch. */
+    private Path _batchSource;
+
+    /** True iff messages are to be served to clients on _port. */
+    private boolean _serving;
+
+    /** Port for --serve. */
+    private int _port;
+
+    /** Name of the output file, or null for the standard output. */
+    private String _outputName;
+
+    /** Source of input messages. */
+    private Reader _input;
 
-    /** A STRING that marks the next value in the iteration. */
-    private String next;
+    /** Text of the machine configuration. */
+    private String _config;
 
-    /** A STRING that represents the notches in the current rotor. */
-    private String currentRotorNotches;
+    /** Name of the configuration file. */
+    private String _configName;
 
-    /** An arrayList of Rotors that contains all the Rotors in this system. */
-    private ArrayList<Rotor> _allRotors = new ArrayList<>();
+    /** Directory of compiled configurations, or null. */
+    private Path _configCache;
 
 }
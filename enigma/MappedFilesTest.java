@@ -0,0 +1,96 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for the MappedReader and MappedWriter
+ *  classes.
+ *  @author Matthew Jihoon Lee
+ */
+public class MappedFilesTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Text long enough to span several small windows. */
+    private static final String TEXT =
+        "* B Beta III IV I AXLE\nFROM HIS SHOULDER HIAWATHA\n"
+        + "TOOK THE CAMERA OF ROSEWOOD\nMADE OF SLIDING FOLDING ROSEWOOD\n";
+
+    @Test
+    public void testWindowedRoundTrip() throws IOException {
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        Writer out = new MappedWriter(file.getPath(), 7);
+        for (int i = 0; i < TEXT.length(); i += 5) {
+            out.write(TEXT, i, Math.min(5, TEXT.length() - i));
+        }
+        out.close();
+        assertEquals(TEXT, new String(Files.readAllBytes(file.toPath()),
+                                      Charset.defaultCharset()));
+
+        Reader in = new MappedReader(file.getPath(), 11);
+        StringBuilder text = new StringBuilder();
+        char[] buf = new char[3];
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            text.append(buf, 0, n);
+        }
+        in.close();
+        assertEquals(TEXT, text.toString());
+    }
+
+    /** Configuration with the rotors used in TEXT. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n5 3\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) (SZ)"
+        + " (TV)\n";
+
+    /** Run Main with --mmap on CONFIG and INPUT, writing to OUTPUT,
+     *  and check that it fails. */
+    private void checkMainFails(Path dir, String config, String input,
+                                Path output) throws IOException {
+        Path conf = dir.resolve("test.conf"), in = dir.resolve("test.in");
+        Files.write(conf, config.getBytes(Charset.defaultCharset()));
+        Files.write(in, input.getBytes(Charset.defaultCharset()));
+        try {
+            new Main(new String[] {"--mmap", conf.toString(), in.toString(),
+                                   output.toString()}).process();
+            fail("error not reported");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testMainErrors() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        Path output = dir.resolve("test.out");
+        checkMainFails(dir, "ABC 5 3\n", TEXT, output);
+        assertFalse(Files.exists(output));
+        checkMainFails(dir, CONFIG, "* B Beta III IV I AXLE\nFROM HIS\n"
+                       + "* B Beta III IV II AXLE\nSHOULDER\n", output);
+        assertEquals("HYIHL BK" + System.lineSeparator(),
+                     new String(Files.readAllBytes(output),
+                                Charset.defaultCharset()));
+        for (File f : dir.toFile().listFiles()) {
+            f.delete();
+        }
+        Files.delete(dir);
+    }
+
+}
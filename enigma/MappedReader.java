@@ -0,0 +1,101 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** A Reader that decodes a file (in the default character set) directly
+ *  from memory-mapped windows onto it, rather than copying it through
+ *  stream buffers.  Files of any length, including those too long for a
+ *  single mapping, are read by mapping successive windows.
+ *  @author Matthew Jihoon Lee
+ */
+class MappedReader extends Reader {
+
+    /** A MappedReader reading the file named NAME. */
+    MappedReader(String name) throws IOException {
+        this(name, WINDOW_SIZE);
+    }
+
+    /** A MappedReader reading the file named NAME through windows of
+     *  WINDOWSIZE bytes. */
+    MappedReader(String name, long windowSize) throws IOException {
+        _windowSize = windowSize;
+        _channel = FileChannel.open(Paths.get(name), StandardOpenOption.READ);
+        _size = _channel.size();
+        _decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off && !_flushed) {
+            boolean last = _start + _window.limit() == _size;
+            CoderResult result = _decoder.decode(_window, out, last);
+            if (result.isError()) {
+                result.throwException();
+            } else if (result.isOverflow()) {
+                break;
+            } else if (!last) {
+                map(_start + _window.position());
+            } else {
+                _decoder.flush(out);
+                _flushed = true;
+            }
+        }
+        int n = out.position() - off;
+        return n == 0 && _flushed ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _window = null;
+        _channel.close();
+    }
+
+    /** Map the window of my file starting at byte POSN. */
+    private void map(long posn) throws IOException {
+        _start = posn;
+        _window = _channel.map(FileChannel.MapMode.READ_ONLY, posn,
+                               Math.min(_windowSize, _size - posn));
+    }
+
+    /** Default largest number of bytes mapped at once. */
+    static final long WINDOW_SIZE = 1L << 28;
+
+    /** Largest number of bytes I map at once. */
+    private final long _windowSize;
+
+    /** The file I read. */
+    private final FileChannel _channel;
+
+    /** The length of _channel in bytes. */
+    private final long _size;
+
+    /** Decodes the bytes of _channel. */
+    private final CharsetDecoder _decoder;
+
+    /** The currently mapped part of _channel. */
+    private MappedByteBuffer _window;
+
+    /** The position in _channel of the start of _window. */
+    private long _start;
+
+    /** True once all input has been decoded. */
+    private boolean _flushed;
+
+}
@@ -0,0 +1,112 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** A Writer that encodes characters (in the default character set)
+ *  directly into memory-mapped windows onto a file.  The file is grown
+ *  one window at a time, and cut back to the length actually written
+ *  when the MappedWriter is closed.
+ *  @author Matthew Jihoon Lee
+ */
+class MappedWriter extends Writer {
+
+    /** A MappedWriter replacing the contents of the file named NAME. */
+    MappedWriter(String name) throws IOException {
+        this(name, WINDOW_SIZE);
+    }
+
+    /** A MappedWriter replacing the contents of the file named NAME,
+     *  which it extends WINDOWSIZE bytes at a time. */
+    MappedWriter(String name, long windowSize) throws IOException {
+        _windowSize = windowSize;
+        _channel = FileChannel.open(Paths.get(name),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+        _encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (_window == null) {
+            throw new IOException("writer closed");
+        }
+        encode(CharBuffer.wrap(cbuf, off, len), false);
+    }
+
+    /** Does nothing: written characters are already in the mapped file,
+     *  and are visible to other readers of it. */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_window == null) {
+            return;
+        }
+        encode(CharBuffer.allocate(0), true);
+        while (_encoder.flush(_window).isOverflow()) {
+            map(_start + _window.position());
+        }
+        long length = _start + _window.position();
+        _window = null;
+        _channel.truncate(length);
+        _channel.close();
+    }
+
+    /** Encode all of IN, which ends the output iff LAST. */
+    private void encode(CharBuffer in, boolean last) throws IOException {
+        while (true) {
+            CoderResult result = _encoder.encode(in, _window, last);
+            if (result.isError()) {
+                result.throwException();
+            } else if (result.isOverflow()) {
+                map(_start + _window.position());
+            } else {
+                return;
+            }
+        }
+    }
+
+    /** Map the window of my file starting at byte POSN. */
+    private void map(long posn) throws IOException {
+        _start = posn;
+        _window = _channel.map(FileChannel.MapMode.READ_WRITE, posn,
+                               _windowSize);
+    }
+
+    /** Default number of bytes by which the file is extended at a
+     *  time. */
+    static final long WINDOW_SIZE = 1L << 24;
+
+    /** Number of bytes I map at once. */
+    private final long _windowSize;
+
+    /** The file I write. */
+    private final FileChannel _channel;
+
+    /** Encodes the characters written to me. */
+    private final CharsetEncoder _encoder;
+
+    /** The currently mapped part of _channel, or null once closed. */
+    private MappedByteBuffer _window;
+
+    /** The position in _channel of the start of _window. */
+    private long _start;
+
+}
@@ -15,6 +15,10 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _listOfNotches = notches;
+        _notched = new boolean[perm.size()];
+        for (int i = 0; i < notches.length(); i++) {
+            _notched[perm.alphabet().toInt(notches.charAt(i))] = true;
+        }
     }
 
     /** Return true iff I have a ratchet and can move. */
@@ -23,25 +27,19 @@ class MovingRotor extends Rotor {
         return true;
     }
 
-    @Override
-    /** Returns true iff I am positioned to allow the rotor to my left
-     *  to advance. */
-    boolean atNotch() {
-        for (int i = 0; i < _listOfNotches.length(); i++) {
-            if (alphabet().toInt(_listOfNotches.charAt(i)) == this.setting()) {
-                return true;
-            }
-        }
-        return false;
+    /** Return my notches, as given to my constructor. */
+    String notches() {
+        return _listOfNotches;
     }
 
     @Override
-    /** Advance me one position, if possible. By default, does nothing. */
-    void advance() {
-        super.set(super.permutation().wrap(super.setting() + 1));
+    boolean notchAt(int posn) {
+        return _notched[posn];
     }
 
-
     /** The location(s) of a rotor's notches in the format STRING. */
     private String _listOfNotches;
+
+    /** _notched[K] is true iff there is a notch at setting K. */
+    private final boolean[] _notched;
 }
@@ -21,12 +21,16 @@ public class MovingRotorTest {
     /* ***** TESTING UTILITIES ***** */
 
     private Rotor rotor;
+
+    /** The setting of rotor. */
+    private int setting;
     private String alpha = UPPER_STRING;
 
     /** Check that rotor has an alphabet whose size is that of
      *  FROMALPHA and TOALPHA and that maps each character of
      *  FROMALPHA to the corresponding character of FROMALPHA, and
-     *  vice-versa. TESTID is used in error messages. */
+     *  vice-versa, at its current setting. TESTID is used in error
+     *  messages. */
     private void checkRotor(String testId,
                             String fromAlpha, String toAlpha) {
         int N = fromAlpha.length();
@@ -35,9 +39,9 @@ public class MovingRotorTest {
             char c = fromAlpha.charAt(i), e = toAlpha.charAt(i);
             int ci = alpha.indexOf(c), ei = alpha.indexOf(e);
             assertEquals(msg(testId, "wrong translation of %d (%c)", ci, c),
-                         ei, rotor.convertForward(ci));
+                         ei, rotor.convertForward(ci, setting));
             assertEquals(msg(testId, "wrong inverse of %d (%c)", ei, e),
-                         ci, rotor.convertBackward(ei));
+                         ci, rotor.convertBackward(ei, setting));
         }
     }
 
@@ -47,6 +51,7 @@ public class MovingRotorTest {
                           String notches) {
         rotor = new MovingRotor(name, new Permutation(rotors.get(name), UPPER),
                                 notches);
+        setting = 0;
     }
 
     /* ***** TESTS ***** */
@@ -60,14 +65,14 @@ public class MovingRotorTest {
     @Test
     public void checkRotorAdvance() {
         setRotor("I", NAVALA, "");
-        rotor.advance();
+        setting = rotor.permutation().wrap(setting + 1);
         checkRotor("Rotor I advanced", UPPER_STRING, NAVALB_MAP.get("I"));
     }
 
     @Test
     public void checkRotorSet() {
         setRotor("I", NAVALA, "");
-        rotor.set(25);
+        setting = rotor.permutation().wrap(25);
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
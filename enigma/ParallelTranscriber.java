@@ -0,0 +1,307 @@
+package enigma;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+/** Converts input in the format read by Main, as a Transcriber does, but
+ *  converts the sections of the input that begin with each settings line
+ *  concurrently.  Since a settings line resets the machine completely,
+ *  the sections are independent.  Consecutive short sections are
+ *  gathered into batches of about the same size, each converted by a
+ *  worker thread with its own fork of the machine into a private buffer,
+ *  and the buffers are written in the order of the input, so the output
+ *  (and the output preceding any error) is exactly as a Transcriber
+ *  would produce.  The number of batches awaiting output, and the number
+ *  of characters they hold, are bounded.  A section too long to hold is
+ *  instead converted as it is read, once all earlier ones are written.
+ *  @author Matthew Jihoon Lee
+ */
+class ParallelTranscriber {
+
+    /** A ParallelTranscriber using forks of MACHINE, and SETTINGS to
+     *  apply each settings line, without leading or trailing whitespace,
+     *  to a machine, and writing to OUTPUT, with one worker per available
+     *  processor. */
+    ParallelTranscriber(Machine machine, BiConsumer<Machine, String> settings,
+                        Writer output) {
+        this(machine, settings, output,
+             Runtime.getRuntime().availableProcessors(), BATCH_SIZE,
+             SECTION_LIMIT);
+    }
+
+    /** As for ParallelTranscriber(MACHINE, SETTINGS, OUTPUT), but with
+     *  THREADS workers, gathering sections into batches of at least BATCH
+     *  characters where possible, and holding at most LIMIT characters of
+     *  sections. */
+    ParallelTranscriber(Machine machine, BiConsumer<Machine, String> settings,
+                        Writer output, int threads, int batch, int limit) {
+        _machine = machine;
+        _settings = settings;
+        _output = output;
+        _direct = new GroupWriter(output);
+        _threads = threads;
+        _batchSize = batch;
+        _limit = limit;
+        _forks = ThreadLocal.withInitial(machine::fork);
+    }
+
+    /** Convert all of INPUT, and flush my output. */
+    void transcribe(Reader input) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(_threads,
+            task -> {
+                Thread thread = new Thread(task, "enigma-section");
+                thread.setDaemon(true);
+                return thread;
+            });
+        _workers = workers;
+        try {
+            char[] buf = new char[Transcriber.BUFFER_SIZE];
+            for (int n = input.read(buf); n >= 0; n = input.read(buf)) {
+                scan(buf, n);
+            }
+            if (_indent.length() > 0) {
+                emitIndent(buf, 0, 0);
+            }
+            endBatch();
+            while (!_window.isEmpty()) {
+                writeOldest();
+            }
+            _output.flush();
+        } catch (EnigmaException excp) {
+            _direct.flush();
+            throw excp;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /** Divide the N characters BUF[0 .. N-1], which continue the input
+     *  seen so far, into sections.  The blanks that begin a line are held
+     *  in _indent until it is known to which section the line belongs. */
+    private void scan(char[] buf, int n) throws IOException {
+        int from = 0;
+        for (int i = 0; i < n; i += 1) {
+            char ch = buf[i];
+            if (isLineEnd(ch)) {
+                if (!_lineOpen) {
+                    from = emitIndent(buf, from, i);
+                }
+                _lineOpen = false;
+                emit(buf, from, i + 1);
+                from = i + 1;
+            } else if (!_lineOpen && !Character.isWhitespace(ch)) {
+                _lineOpen = true;
+                if (ch == '*' && (_transcriber != null
+                                  || _batch.length() >= _batchSize)) {
+                    endBatch();
+                }
+                from = emitIndent(buf, from, i);
+            }
+        }
+        if (_lineOpen) {
+            emit(buf, from, n);
+        } else {
+            _indent.append(buf, from, n - from);
+        }
+    }
+
+    /** Add _indent and then BUF[FROM .. TO-1], the blanks beginning the
+     *  current line, to the current batch, returning TO. */
+    private int emitIndent(char[] buf, int from, int to) throws IOException {
+        if (_indent.length() > 0) {
+            char[] held = _indent.toString().toCharArray();
+            _indent.setLength(0);
+            emit(held, 0, held.length);
+        }
+        emit(buf, from, to);
+        return to;
+    }
+
+    /** Add the characters BUF[FROM .. TO-1] to the current batch. */
+    private void emit(char[] buf, int from, int to) throws IOException {
+        if (from == to) {
+            return;
+        } else if (_transcriber != null) {
+            _transcriber.feed(buf, from, to - from);
+            return;
+        }
+        _batch.append(buf, from, to - from);
+        if (_batch.length() > _limit) {
+            while (!_window.isEmpty()) {
+                writeOldest();
+            }
+            _transcriber =
+                new Transcriber(_machine, s -> _settings.accept(_machine, s),
+                                _direct);
+            char[] held = new char[_batch.length()];
+            _batch.getChars(0, held.length, held, 0);
+            _batch.setLength(0);
+            _transcriber.feed(held, 0, held.length);
+        }
+    }
+
+    /** End the current batch of sections, if it has begun. */
+    private void endBatch() throws IOException {
+        if (_transcriber != null) {
+            _transcriber.finish();
+            _transcriber = null;
+        } else if (_batch.length() > 0) {
+            submit(_batch.toString());
+            _batch.setLength(0);
+        }
+    }
+
+    /** Start converting BATCH, a batch of sections, first writing the
+     *  output of older batches as needed to stay within my bounds. */
+    private void submit(String batch) throws IOException {
+        while (_window.size() >= WINDOW_PER_THREAD * _threads
+               || (!_window.isEmpty() && _held + batch.length() > _limit)) {
+            writeOldest();
+        }
+        _held += batch.length();
+        _lengths.add(batch.length());
+        _window.add(_workers.submit(() -> convert(batch)));
+    }
+
+    /** Return the result of converting BATCH with this thread's fork
+     *  of my machine. */
+    private Result convert(String batch) {
+        Machine machine = _forks.get();
+        CharArrayWriter out = new CharArrayWriter(batch.length());
+        GroupWriter output = new GroupWriter(out);
+        Transcriber transcriber =
+            new Transcriber(machine, s -> _settings.accept(machine, s),
+                            output);
+        char[] chars = batch.toCharArray();
+        EnigmaException error = null;
+        try {
+            transcriber.feed(chars, 0, chars.length);
+            transcriber.finish();
+        } catch (EnigmaException excp) {
+            error = excp;
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+        try {
+            output.flush();
+        } catch (IOException excp) {
+            throw new IllegalStateException(excp);
+        }
+        return new Result(out.toCharArray(), error);
+    }
+
+    /** Wait for the oldest section awaiting output to be converted, and
+     *  write its output, throwing its error, if any. */
+    private void writeOldest() throws IOException {
+        Result result;
+        try {
+            result = _window.remove().get();
+        } catch (InterruptedException excp) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        _held -= _lengths.remove();
+        _output.write(result.text);
+        if (result.error != null) {
+            _output.flush();
+            throw result.error;
+        }
+    }
+
+    /** Return true iff CH terminates a line. */
+    private static boolean isLineEnd(char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u0085'
+            || ch == '\u2028' || ch == '\u2029';
+    }
+
+    /** The output of a section, and the error that ended it, if any. */
+    private static final class Result {
+        /** A result with output TEXT and error ERROR (or null). */
+        Result(char[] text, EnigmaException error) {
+            this.text = text;
+            this.error = error;
+        }
+
+        /** Converted text. */
+        final char[] text;
+
+        /** Error ending the conversion, or null. */
+        final EnigmaException error;
+    }
+
+    /** Default minimum size of a batch of sections. */
+    static final int BATCH_SIZE = 1 << 16;
+
+    /** Default maximum number of characters in sections held at once. */
+    static final int SECTION_LIMIT = 1 << 24;
+
+    /** Maximum number of batches awaiting output per worker. */
+    private static final int WINDOW_PER_THREAD = 4;
+
+    /** Machine forked by the workers, and used for sections converted as
+     *  they are read. */
+    private final Machine _machine;
+
+    /** Applies settings lines to machines. */
+    private final BiConsumer<Machine, String> _settings;
+
+    /** Destination of output. */
+    private final Writer _output;
+
+    /** Destination of the output of sections converted as they are
+     *  read. */
+    private final GroupWriter _direct;
+
+    /** Number of workers. */
+    private final int _threads;
+
+    /** Minimum size of a batch of sections. */
+    private final int _batchSize;
+
+    /** Maximum number of characters held in sections. */
+    private final int _limit;
+
+    /** Each worker's fork of _machine. */
+    private final ThreadLocal<Machine> _forks;
+
+    /** Runs the workers during transcribe(). */
+    private ExecutorService _workers;
+
+    /** Results of the batches awaiting output, oldest first. */
+    private final ArrayDeque<Future<Result>> _window = new ArrayDeque<>();
+
+    /** Lengths of the batches in _window. */
+    private final ArrayDeque<Integer> _lengths = new ArrayDeque<>();
+
+    /** Total length of the batches in _window. */
+    private long _held;
+
+    /** Characters of the current batch of sections, unless a section is
+     *  being converted as it is read. */
+    private final StringBuilder _batch = new StringBuilder();
+
+    /** Blanks beginning the current line, before any other character,
+     *  not yet added to a section. */
+    private final StringBuilder _indent = new StringBuilder();
+
+    /** True iff the current line has a non-blank character. */
+    private boolean _lineOpen;
+
+    /** Converts the current section as it is read, or null. */
+    private Transcriber _transcriber;
+
+}
@@ -0,0 +1,123 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the ParallelTranscriber class.
+ *  @author Matthew Jihoon Lee
+ */
+public class ParallelTranscriberTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the output of transcribing INPUT with a Transcriber,
+     *  followed by "Error" if it fails. */
+    private String sequential(String input) throws IOException {
+        Machine machine = navalMachine();
+        StringWriter out = new StringWriter();
+        GroupWriter output = new GroupWriter(out);
+        try {
+            new Transcriber(machine, s -> Main.setUp(machine, s), output)
+                .transcribe(new StringReader(input));
+        } catch (EnigmaException excp) {
+            output.flush();
+            return out + "Error";
+        }
+        return out.toString();
+    }
+
+    /** Return the output of transcribing INPUT with a ParallelTranscriber
+     *  with THREADS workers, batches of BATCH characters, and a limit of
+     *  LIMIT characters held, followed by "Error" if it fails. */
+    private String parallel(String input, int threads, int batch, int limit)
+        throws IOException {
+        StringWriter out = new StringWriter();
+        try {
+            new ParallelTranscriber(navalMachine(), Main::setUp, out,
+                                    threads, batch, limit)
+                .transcribe(new StringReader(input));
+        } catch (EnigmaException excp) {
+            return out + "Error";
+        }
+        return out.toString();
+    }
+
+    /** Return a random input of N sections using RANDOM, with assorted
+     *  line ends and blanks, in which each settings line is wrong with
+     *  probability 1 / ERRORS (never, if ERRORS is 0). */
+    private String input(Random random, int n, int errors) {
+        String[] ends = { "\n", "\r\n", "\r", "\u2028" };
+        String[] orders = { "III IV I", "I III IV", "IV I III" };
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < n; k += 1) {
+            String end = ends[random.nextInt(ends.length)];
+            result.append(random.nextBoolean() ? "" : "  ");
+            result.append("* B Beta ");
+            if (errors > 0 && random.nextInt(errors) == 0) {
+                result.append("III III I");
+            } else {
+                result.append(orders[random.nextInt(orders.length)]);
+            }
+            result.append(" ");
+            for (int i = 0; i < 4; i += 1) {
+                result.append((char) ('A' + random.nextInt(26)));
+            }
+            result.append(random.nextBoolean() ? " (AQ) (EP)" : "");
+            result.append(end);
+            int lines = random.nextInt(4);
+            for (int j = 0; j < lines; j += 1) {
+                int len = random.nextInt(40);
+                for (int i = 0; i < len; i += 1) {
+                    result.append(random.nextInt(6) == 0 ? ' '
+                                  : (char) ('A' + random.nextInt(26)));
+                }
+                result.append(end);
+            }
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSameAsTranscriber() throws IOException {
+        Random random = new Random(19);
+        for (int trial = 0; trial < 20; trial += 1) {
+            String input = input(random, 1 + random.nextInt(60), 0);
+            String expected = sequential(input);
+            assertEquals(expected, parallel(input, 3, 1, 1 << 20));
+            assertEquals(expected, parallel(input, 2, 200, 1 << 20));
+            assertEquals(expected, parallel(input, 4, 1, 300));
+            assertEquals(expected, parallel(input, 1, 64, 100));
+        }
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        Random random = new Random(23);
+        for (int trial = 0; trial < 20; trial += 1) {
+            String input = input(random, 1 + random.nextInt(60), 20);
+            String expected = sequential(input);
+            assertEquals(expected, parallel(input, 3, 1, 1 << 20));
+            assertEquals(expected, parallel(input, 2, 100, 250));
+        }
+        assertEquals("Error", parallel("HELLO\n* B Beta III IV I AAAA\n",
+                                       2, 1, 100));
+        assertEquals(sequential("\n* B Beta III IV I AAAA\nHELLO"),
+                     parallel("\n* B Beta III IV I AAAA\nHELLO", 2, 1, 100));
+    }
+
+}
@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
@@ -14,14 +16,81 @@ class Permutation {
      *  alphabet that are not included in any cycle map to themselves.
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
-        _cycles = cycles;
         _alphabet = alphabet;
+        _forward = new int[alphabet.size()];
+        _inverse = new int[alphabet.size()];
+        for (int i = 0; i < _forward.length; i += 1) {
+            _forward[i] = i;
+            _inverse[i] = i;
+        }
+        boolean[] seen = new boolean[alphabet.size()];
+        int i = 0;
+        while (i < cycles.length()) {
+            char ch = cycles.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                i += 1;
+            } else if (ch == '(') {
+                int end = cycles.indexOf(')', i + 1);
+                if (end < 0) {
+                    throw error("unbalanced parentheses in %s", cycles);
+                }
+                addCycle(cycles.substring(i + 1, end), seen);
+                i = end + 1;
+            } else {
+                throw error("bad cycle notation at '%c' in %s", ch, cycles);
+            }
+        }
+    }
+
+    /** Set this Permutation to the one taking each index I of ALPHABET to
+     *  FORWARD[I], which must be a permutation of those indices. */
+    Permutation(int[] forward, Alphabet alphabet) {
+        if (forward.length != alphabet.size()) {
+            throw error("permutation table has the wrong size");
+        }
+        _alphabet = alphabet;
+        _forward = forward.clone();
+        _inverse = new int[forward.length];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < forward.length; i += 1) {
+            int c = forward[i];
+            if (c < 0 || c >= forward.length || _inverse[c] >= 0) {
+                throw error("permutation table is not a permutation");
+            }
+            _inverse[c] = i;
+        }
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        _cycles += cycle;
+     *  c0c1...cm.  SEEN marks the characters already in some cycle, and
+     *  is updated. */
+    private void addCycle(String cycle, boolean[] seen) {
+        int first = -1, prev = -1;
+        for (int k = 0; k < cycle.length(); k += 1) {
+            char ch = cycle.charAt(k);
+            if (Character.isWhitespace(ch)) {
+                continue;
+            }
+            if (ch == '(') {
+                throw error("unbalanced parentheses in (%s)", cycle);
+            }
+            int c = _alphabet.toInt(ch);
+            if (seen[c]) {
+                throw error("character '%c' appears in two cycles", ch);
+            }
+            seen[c] = true;
+            if (prev < 0) {
+                first = c;
+            } else {
+                _forward[prev] = c;
+                _inverse[c] = prev;
+            }
+            prev = c;
+        }
+        if (prev >= 0) {
+            _forward[prev] = first;
+            _inverse[first] = prev;
+        }
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -35,95 +104,30 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        char character = _alphabet.toChar(wrap(p));
-        String[] newcycles = _cycles.split(" ");
-        for (int i = 0; i <= newcycles.length - 1; i++) {
-            if (newcycles[i].length() == 3
-                    && character == newcycles[i].charAt(1)) {
-                return _alphabet.toInt(newcycles[i].charAt(1));
-            }
-            for (int j = 1; j <= newcycles[i].length() - 2; j++) {
-                if (character == newcycles[i].charAt(j)) {
-                    if (j == newcycles[i].length() - 2) {
-                        return _alphabet.toInt(newcycles[i].charAt(1));
-                    } else {
-                        return _alphabet.toInt(newcycles[i].charAt(j + 1));
-                    }
-                }
-            }
-        }
-        return p;
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to C modulo the alphabet size. */
     int invert(int c) {
-        char character = _alphabet.toChar(wrap(c));
-        String[] newcycles = _cycles.split(" ");
-        for (int i = 0; i <= newcycles.length - 1; i++) {
-            if (newcycles[i].length() == 3
-                    && character == newcycles[i].charAt(1)) {
-                return _alphabet.toInt(newcycles[i].charAt(1));
-            }
-            for (int j = newcycles[i].length() - 2; j >= 1; j--) {
-                if (character == newcycles[i].charAt(j)) {
-                    if (j == 1) {
-                        return _alphabet.toInt(newcycles[i].
-                                charAt(newcycles[i].length() - 2));
-                    } else {
-                        return _alphabet.toInt(newcycles[i].charAt(j - 1));
-                    }
-                }
-            }
-        }
-        return c;
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        String[] newcycles = _cycles.split(" ");
-        for (int i = 0; i <= newcycles.length - 1; i++) {
-            if (newcycles[i].length() == 3 && p == newcycles[i].charAt(1)) {
-                return newcycles[i].charAt(1);
-            }
-            for (int j = 1; j <= newcycles[i].length() - 2; j++) {
-                if (p == newcycles[i].charAt(j)) {
-                    if (j == newcycles[i].length() - 2) {
-                        return newcycles[i].charAt(1);
-                    } else {
-                        return newcycles[i].charAt(j + 1);
-                    }
-                }
-            }
-        }
-        return p;
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        String[] newcycles = _cycles.split(" ");
-        for (int i = 0; i <= newcycles.length - 1; i++) {
-            if (newcycles[i].length() == 3 && c == newcycles[i].charAt(1)) {
-                return newcycles[i].charAt(1);
-            }
-            for (int j = newcycles[i].length() - 2; j >= 1; j--) {
-                if (c == newcycles[i].charAt(j)) {
-                    if (j == 1) {
-                        return newcycles[i].charAt(newcycles[i].length() - 2);
-                    } else {
-                        return newcycles[i].charAt(j - 1);
-                    }
-                }
-            }
-        }
-        return c;
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -134,9 +138,8 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        String[] listofcycles = _cycles.split(" ");
-        for (int i = 0; i < listofcycles.length; i++) {
-            if (listofcycles[i].length() == 3) {
+        for (int i = 0; i < _forward.length; i += 1) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
@@ -146,7 +149,9 @@ class Permutation {
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** a string in the form "(cccc) (cc) ..." where the
-     * c's are characters in ALPHABET. */
-    private String _cycles;
+    /** My mapping: index I goes to _forward[I]. */
+    private final int[] _forward;
+
+    /** The inverse of _forward: index I comes from _inverse[I]. */
+    private final int[] _inverse;
 }
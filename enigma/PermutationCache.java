@@ -0,0 +1,260 @@
+package enigma;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of the complete permutations performed by machines at
+ *  particular rotor positions, which may be shared by any number of
+ *  machines (see Machine.setPermutationCache).  An entry is keyed by a
+ *  machine configuration (alphabet, rotor wirings in order, and
+ *  plugboard) and the settings of the rotors, so machines repeatedly set
+ *  from the same settings line find the permutations already computed.
+ *  The least recently used entries are evicted to keep the memory used
+ *  by the permutations and the configuration descriptions within a given
+ *  limit; a configuration is dropped with its last permutation.  All
+ *  methods are synchronized.
+ *  @author Matthew Jihoon Lee
+ */
+public class PermutationCache {
+
+    /** A cache holding permutations of at most about BYTES bytes. */
+    public PermutationCache(long bytes) {
+        if (bytes < 0) {
+            throw EnigmaException.error("negative cache size");
+        }
+        _capacity = bytes;
+    }
+
+    /** Return the number of lookups that found a permutation. */
+    public synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of lookups that did not find a permutation. */
+    public synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of permutations evicted to stay within the
+     *  memory limit. */
+    public synchronized long evictions() {
+        return _evictions;
+    }
+
+    /** Return the number of permutations cached. */
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    /** Return the number of configurations registered. */
+    public synchronized int configurations() {
+        return _byNumber.size();
+    }
+
+    /** Return the approximate number of bytes used by the cached
+     *  permutations and the descriptions of their configurations. */
+    public synchronized long bytes() {
+        return _bytes;
+    }
+
+    /** Discard all cached permutations, configurations, and
+     *  statistics. */
+    public synchronized void clear() {
+        _entries.clear();
+        _configs.clear();
+        _byNumber.clear();
+        _bytes = _hits = _misses = _evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d permutations of %d configurations "
+                             + "(%d bytes), %d hits, %d misses, "
+                             + "%d evictions", _entries.size(),
+                             _byNumber.size(), _bytes, _hits, _misses,
+                             _evictions);
+    }
+
+    /** Return the number identifying the machine configuration
+     *  DESCRIPTION, a string determining the permutation performed at
+     *  each setting of the rotors.  Numbers are never reused, so a
+     *  number whose configuration has been dropped finds nothing. */
+    synchronized long configuration(String description) {
+        Configuration config = _configs.get(description);
+        if (config == null) {
+            config = new Configuration(description, _nextNumber);
+            _nextNumber += 1;
+            _configs.put(description, config);
+            _byNumber.put(config.number, config);
+            _bytes += config.bytes();
+            evict();
+        }
+        return config.number;
+    }
+
+    /** Return the permutation cached for configuration CONFIG (from
+     *  configuration()) with rotor settings POSITIONS (packed as chosen
+     *  by the caller), or null if there is none. */
+    synchronized int[] get(long config, long positions) {
+        int[] perm = _entries.get(new Key(config, positions));
+        if (perm == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return perm;
+    }
+
+    /** Cache PERM as the permutation for configuration CONFIG with rotor
+     *  settings POSITIONS.  Return false if CONFIG has been dropped, in
+     *  which case configuration() must be called again to cache its
+     *  permutations. */
+    synchronized boolean put(long config, long positions, int[] perm) {
+        Configuration owner = _byNumber.get(config);
+        if (owner == null) {
+            return false;
+        }
+        long bytes = entryBytes(perm);
+        if (bytes + owner.bytes() > _capacity) {
+            return true;
+        }
+        int[] old = _entries.put(new Key(config, positions), perm);
+        if (old != null) {
+            _bytes -= entryBytes(old);
+        } else {
+            owner.entries += 1;
+        }
+        _bytes += bytes;
+        evict();
+        return true;
+    }
+
+    /** Evict the least recently used permutations, and with them the
+     *  configurations left without any, until I am within my limit.
+     *  Failing that, drop configurations without permutations. */
+    private void evict() {
+        Iterator<Map.Entry<Key, int[]>> eldest =
+            _entries.entrySet().iterator();
+        while (_bytes > _capacity && eldest.hasNext()) {
+            Map.Entry<Key, int[]> entry = eldest.next();
+            _bytes -= entryBytes(entry.getValue());
+            eldest.remove();
+            _evictions += 1;
+            Configuration owner = _byNumber.get(entry.getKey()._config);
+            owner.entries -= 1;
+            if (owner.entries == 0) {
+                drop(owner);
+            }
+        }
+        Iterator<Configuration> configs = _byNumber.values().iterator();
+        while (_bytes > _capacity && configs.hasNext()) {
+            Configuration config = configs.next();
+            if (config.entries == 0) {
+                configs.remove();
+                _configs.remove(config.description);
+                _bytes -= config.bytes();
+            }
+        }
+    }
+
+    /** Forget CONFIG, which has no cached permutations. */
+    private void drop(Configuration config) {
+        _byNumber.remove(config.number);
+        _configs.remove(config.description);
+        _bytes -= config.bytes();
+    }
+
+    /** Return the approximate number of bytes used to cache PERM. */
+    private static long entryBytes(int[] perm) {
+        return (long) Integer.BYTES * perm.length + ENTRY_OVERHEAD;
+    }
+
+    /** A registered machine configuration. */
+    private static final class Configuration {
+        /** Configuration number NUMBER, described by DESCRIPTION. */
+        Configuration(String description, long number) {
+            this.description = description;
+            this.number = number;
+        }
+
+        /** Return the approximate number of bytes used to keep me. */
+        long bytes() {
+            return (long) Character.BYTES * description.length()
+                + ENTRY_OVERHEAD;
+        }
+
+        /** Description of the configuration. */
+        final String description;
+
+        /** Configuration number. */
+        final long number;
+
+        /** Number of permutations cached for the configuration. */
+        int entries;
+    }
+
+    /** Key of a cached permutation. */
+    private static final class Key {
+        /** A key for configuration CONFIG at POSITIONS. */
+        Key(long config, long positions) {
+            _config = config;
+            _positions = positions;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return _config == other._config
+                && _positions == other._positions;
+        }
+
+        @Override
+        public int hashCode() {
+            return HASH_MULTIPLIER * Long.hashCode(_config)
+                + Long.hashCode(_positions);
+        }
+
+        /** Multiplier combining the hash codes of the fields. */
+        private static final int HASH_MULTIPLIER = 31;
+
+        /** Configuration number. */
+        private final long _config;
+
+        /** Packed rotor settings. */
+        private final long _positions;
+    }
+
+    /** Approximate bytes used by a cache entry apart from its
+     *  permutation, or by a configuration apart from its description. */
+    private static final long ENTRY_OVERHEAD = 96;
+
+    /** Limit on _bytes. */
+    private final long _capacity;
+
+    /** Cached permutations, from least to most recently used. */
+    private final LinkedHashMap<Key, int[]> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Registered configurations, by description. */
+    private final Map<String, Configuration> _configs = new HashMap<>();
+
+    /** Registered configurations, by number, from least to most recently
+     *  registered. */
+    private final LinkedHashMap<Long, Configuration> _byNumber =
+        new LinkedHashMap<>();
+
+    /** Number of the next configuration registered. */
+    private long _nextNumber;
+
+    /** Approximate bytes used by the entries and configurations. */
+    private long _bytes;
+
+    /** Lookup statistics. */
+    private long _hits, _misses, _evictions;
+
+}
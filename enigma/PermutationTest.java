@@ -104,4 +104,25 @@ public class PermutationTest {
 
         assertEquals("Error!", false, perm.derangement());
     }
+
+    @Test
+    public void testUnspacedCycles() {
+        perm = new Permutation(NAVALA.get("V"), UPPER);
+        checkPerm("V", UPPER_STRING, NAVALA_MAP.get("V"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedCharacter() {
+        perm = new Permutation("(ABC) (DA)", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedSingleton() {
+        perm = new Permutation("(A) (AB)", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testRepeatedInCycle() {
+        perm = new Permutation("(ABA)", UPPER);
+    }
 }
@@ -0,0 +1,232 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/** Overlaps reading, conversion, and writing.  One thread reads input
+ *  into a fixed set of recycled buffers, the calling thread feeds them to
+ *  a Transcriber, whose output goes through sink() into a second set of
+ *  recycled buffers, and another thread writes those.  The bounded
+ *  queues between the stages keep memory use constant, and no stage
+ *  allocates per buffer.
+ *  @author Matthew Jihoon Lee
+ */
+class Pipeline {
+
+    /** A Pipeline reading from INPUT and writing to OUTPUT. */
+    Pipeline(Reader input, Writer output) {
+        _input = input;
+        _output = output;
+        for (int i = 0; i < BUFFERS; i += 1) {
+            _emptyIn.add(new Chunk());
+            _emptyOut.add(new Chunk());
+        }
+        _writer = new Thread(this::writeAll, "enigma-writer");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /** Return the Writer through which converted output must be sent to
+     *  be written by my writing thread. */
+    Writer sink() {
+        return _sink;
+    }
+
+    /** Feed all of my input to TRANSCRIBER and finish it, reading on a
+     *  separate thread. */
+    void transcribe(Transcriber transcriber) throws IOException {
+        Thread reader = new Thread(this::readAll, "enigma-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            while (true) {
+                Chunk chunk = _filled.take();
+                if (chunk == END) {
+                    break;
+                }
+                transcriber.feed(chunk.buf, 0, chunk.len);
+                _emptyIn.put(chunk);
+            }
+        } catch (InterruptedException excp) {
+            throw new InterruptedIOException();
+        } finally {
+            reader.interrupt();
+        }
+        if (_readError != null) {
+            throw _readError;
+        }
+        transcriber.finish();
+    }
+
+    /** Pass all output sent to sink() so far to the writing thread, wait
+     *  for it to be written and flushed, and stop that thread. */
+    void close() throws IOException {
+        _sink.close();
+        try {
+            _writer.join();
+        } catch (InterruptedException excp) {
+            throw new InterruptedIOException();
+        }
+        if (_writeError != null) {
+            throw _writeError;
+        }
+    }
+
+    /** Body of the reading thread: fill empty chunks from _input until it
+     *  is exhausted or fails, then send END. */
+    private void readAll() {
+        try {
+            while (true) {
+                Chunk chunk = _emptyIn.take();
+                chunk.len = _input.read(chunk.buf);
+                if (chunk.len < 0) {
+                    break;
+                }
+                _filled.put(chunk);
+            }
+        } catch (IOException excp) {
+            _readError = excp;
+        } catch (InterruptedException excp) {
+            return;
+        }
+        _filled.add(END);
+    }
+
+    /** Body of the writing thread: write chunks as they arrive until
+     *  END.  After a failure, keep recycling chunks so that the
+     *  converting thread is never blocked, and report the failure from
+     *  close(). */
+    private void writeAll() {
+        try {
+            while (true) {
+                Chunk chunk = _written.take();
+                if (chunk == END) {
+                    break;
+                }
+                if (_writeError == null) {
+                    try {
+                        _output.write(chunk.buf, 0, chunk.len);
+                    } catch (IOException excp) {
+                        _writeError = excp;
+                    }
+                }
+                _emptyOut.put(chunk);
+            }
+            _output.flush();
+        } catch (IOException excp) {
+            _writeError = excp;
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** A buffer passed between stages. */
+    private static final class Chunk {
+        /** The characters held. */
+        private final char[] buf = new char[CHUNK_SIZE];
+        /** The number of characters of buf in use. */
+        private int len;
+    }
+
+    /** The Writer returned by sink(). */
+    private class Sink extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (_writeError != null) {
+                throw _writeError;
+            }
+            try {
+                while (len > 0) {
+                    if (_current == null) {
+                        _current = _emptyOut.take();
+                        _current.len = 0;
+                    }
+                    int n = Math.min(len, CHUNK_SIZE - _current.len);
+                    System.arraycopy(cbuf, off, _current.buf, _current.len, n);
+                    _current.len += n;
+                    off += n;
+                    len -= n;
+                    if (_current.len == CHUNK_SIZE) {
+                        flush();
+                    }
+                }
+            } catch (InterruptedException excp) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        /** Pass the partly filled current chunk, if any, to the writing
+         *  thread. */
+        @Override
+        public void flush() throws IOException {
+            if (_current != null) {
+                _written.add(_current);
+                _current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!_closed) {
+                flush();
+                _written.add(END);
+                _closed = true;
+            }
+        }
+
+        /** The chunk being filled, or null. */
+        private Chunk _current;
+
+        /** True once END has been sent. */
+        private boolean _closed;
+    }
+
+    /** Number of characters in a chunk. */
+    static final int CHUNK_SIZE = 1 << 16;
+
+    /** Number of chunks used for each of input and output. */
+    static final int BUFFERS = 4;
+
+    /** Marks the end of a stream of chunks. */
+    private static final Chunk END = new Chunk();
+
+    /** Source of input. */
+    private final Reader _input;
+
+    /** Destination of output. */
+    private final Writer _output;
+
+    /** The thread running writeAll. */
+    private final Thread _writer;
+
+    /** The Writer feeding the writing thread. */
+    private final Sink _sink = new Sink();
+
+    /** Input chunks ready to be filled. */
+    private final BlockingQueue<Chunk> _emptyIn =
+        new ArrayBlockingQueue<>(BUFFERS);
+
+    /** Input chunks ready to be converted, followed by END. */
+    private final BlockingQueue<Chunk> _filled =
+        new ArrayBlockingQueue<>(BUFFERS + 1);
+
+    /** Output chunks ready to be filled. */
+    private final BlockingQueue<Chunk> _emptyOut =
+        new ArrayBlockingQueue<>(BUFFERS);
+
+    /** Output chunks ready to be written, followed by END. */
+    private final BlockingQueue<Chunk> _written =
+        new ArrayBlockingQueue<>(BUFFERS + 1);
+
+    /** The error that stopped the reading thread, if any. */
+    private volatile IOException _readError;
+
+    /** The first error met by the writing thread, if any. */
+    private volatile IOException _writeError;
+
+}
@@ -22,16 +22,9 @@ class Reflector extends FixedRotor {
     }
 
     @Override
-    int convertBackward(int e) {
+    int convertBackward(int e, int setting) {
         throw error("Remember that the "
                 + "rotor reflector cannot convert backwards!");
     }
 
-    @Override
-    void set(int posn) {
-        if (posn != 0) {
-            throw error("reflector has only one position");
-        }
-    }
-
 }
@@ -2,7 +2,10 @@ package enigma;
 
 import static enigma.EnigmaException.*;
 
-/** Superclass that represents a rotor in the enigma machine.
+/** Superclass that represents a rotor in the enigma machine.  A rotor
+ *  describes its wiring and notches, which never change, so one rotor
+ *  may be used by any number of machines at once, each of which keeps
+ *  track of the rotor's setting in that machine.
  *  @author Matthew Jihoon Lee
  */
 class Rotor {
@@ -11,7 +14,13 @@ class Rotor {
     Rotor(String name, Permutation perm) {
         _name = name;
         _permutation = perm;
-        _setting = 0;
+        _size = perm.size();
+        _forward = new int[_size];
+        _inverse = new int[_size];
+        for (int c = 0; c < _size; c += 1) {
+            _forward[c] = perm.permute(c);
+            _inverse[c] = perm.invert(c);
+        }
     }
 
     /** Return my name. */
@@ -44,43 +53,36 @@ class Rotor {
         return false;
     }
 
-    /** Return my current setting. */
-    int setting() {
-        return _setting;
-    }
-
-    /** Set setting() to POSN.  */
-    void set(int posn) {
-        _setting = _permutation.wrap(posn);
-    }
-
-    /** Set setting() to character CPOSN. */
-    void set(char cposn) {
-        _setting = _permutation.alphabet().toInt(cposn);
-    }
-
     /** Return the conversion of P (an integer in the range 0..size()-1)
-     *  according to my permutation. */
-    int convertForward(int p) {
-        int convert = _permutation.permute(p + _setting);
-        return _permutation.wrap(convert - _setting);
+     *  according to my permutation when I am at setting SETTING. */
+    int convertForward(int p, int setting) {
+        return shift(_forward[shift(p + setting)] - setting);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
-     *  according to the inverse of my permutation. */
-    int convertBackward(int e) {
-        int convert = _permutation.invert(e + _setting);
-        return _permutation.wrap(convert - _setting);
+     *  according to the inverse of my permutation when I am at setting
+     *  SETTING. */
+    int convertBackward(int e, int setting) {
+        return shift(_inverse[shift(e + setting)] - setting);
     }
 
-    /** Returns true iff I am positioned to allow the rotor to my left
-     *  to advance. */
-    boolean atNotch() {
-        return false;
+    /** Return X modulo size(), where X is in the range
+     *  -size() .. 2 * size() - 1.  Avoids the division done by
+     *  Permutation.wrap, which would otherwise dominate the cost of
+     *  conversions through rotors at arbitrary settings. */
+    private int shift(int x) {
+        if (x >= _size) {
+            return x - _size;
+        } else if (x < 0) {
+            return x + _size;
+        }
+        return x;
     }
 
-    /** Advance me one position, if possible. By default, does nothing. */
-    void advance() {
+    /** Returns true iff I would allow the rotor to my left to advance
+     *  at setting POSN.  By default, never. */
+    boolean notchAt(int posn) {
+        return false;
     }
 
     @Override
@@ -92,9 +94,12 @@ class Rotor {
     private final String _name;
 
     /** The permutation implemented by this rotor in its 0 position. */
-    private Permutation _permutation;
+    private final Permutation _permutation;
+
+    /** Size of my alphabet. */
+    private final int _size;
 
-    /** An integer that represents the current setting of a rotor. */
-    private int _setting;
+    /** My permutation and its inverse, as tables. */
+    private final int[] _forward, _inverse;
 
 }
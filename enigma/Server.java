@@ -0,0 +1,197 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A long-running service converting messages for clients that connect
+ *  to a port on the loopback interface.  Each connection is a session
+ *  whose input has the format read by Main: settings lines, each
+ *  followed by message lines.  The converted message lines come back in
+ *  groups of five, as Main writes them, as soon as each line is complete.
+ *  A session whose input is in error receives a line "Error: MESSAGE"
+ *  and is closed.  Sessions share the rotors and plugboards of one
+ *  configured machine, of which each has its own fork(), and run on
+ *  virtual threads where the Java runtime provides them (otherwise on
+ *  threads with small stacks).
+ *  @author Matthew Jihoon Lee
+ */
+class Server implements AutoCloseable {
+
+    /** A server on loopback port PORT (or any free port, if PORT is 0)
+     *  whose sessions use forks of MACHINE, which must not be changed
+     *  afterwards.  Starts accepting connections immediately. */
+    Server(Machine machine, int port) throws IOException {
+        _machine = machine;
+        _socket = new ServerSocket(port, BACKLOG,
+                                   InetAddress.getLoopbackAddress());
+        _sessions = newSessionExecutor();
+        _acceptor = new Thread(this::acceptAll, "enigma-acceptor");
+        _acceptor.setDaemon(true);
+        _acceptor.start();
+    }
+
+    /** Return the port on which I accept connections. */
+    int port() {
+        return _socket.getLocalPort();
+    }
+
+    /** Return the number of sessions begun. */
+    long sessions() {
+        return _sessionCount.sum();
+    }
+
+    /** Return the number of sessions in progress. */
+    int activeSessions() {
+        return _active.get();
+    }
+
+    /** Return the number of input characters processed in all
+     *  sessions. */
+    long characters() {
+        return _characters.sum();
+    }
+
+    /** Return the number of message lines converted in all sessions. */
+    long lines() {
+        return _lines.sum();
+    }
+
+    /** Wait until I am closed. */
+    void await() throws InterruptedException {
+        _acceptor.join();
+    }
+
+    /** Stop accepting connections and end all sessions. */
+    @Override
+    public void close() throws IOException {
+        _socket.close();
+        _sessions.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d sessions (%d active), %d lines, "
+                             + "%d characters", sessions(), activeSessions(),
+                             lines(), characters());
+    }
+
+    /** Accept connections until my socket is closed, starting a session
+     *  for each. */
+    private void acceptAll() {
+        while (!_socket.isClosed()) {
+            try {
+                Socket client = _socket.accept();
+                try {
+                    _sessions.execute(() -> serve(client));
+                } catch (RejectedExecutionException excp) {
+                    client.close();
+                }
+            } catch (IOException excp) {
+                if (_socket.isClosed()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Conduct a session with CLIENT. */
+    private void serve(Socket client) {
+        _sessionCount.increment();
+        _active.incrementAndGet();
+        try (Socket socket = client) {
+            socket.setTcpNoDelay(true);
+            Reader in = new InputStreamReader(socket.getInputStream());
+            Writer out = new OutputStreamWriter(socket.getOutputStream());
+            GroupWriter output = new GroupWriter(out, SESSION_BUFFER);
+            Machine machine = _machine.fork();
+            Transcriber transcriber =
+                new Transcriber(machine, line -> Main.setUp(machine, line),
+                                output, SESSION_BUFFER);
+            char[] buf = new char[SESSION_BUFFER];
+            long lines = 0;
+            try {
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    transcriber.feed(buf, 0, n);
+                    output.flush();
+                    _characters.add(n);
+                    _lines.add(output.lines() - lines);
+                    lines = output.lines();
+                }
+                transcriber.finish();
+                _lines.add(output.lines() - lines);
+            } catch (EnigmaException excp) {
+                output.flush();
+                out.write(String.format("Error: %s%n", excp.getMessage()));
+                out.flush();
+            }
+        } catch (IOException excp) {
+            /* The client has gone; nothing more to do. */
+        } finally {
+            _active.decrementAndGet();
+        }
+    }
+
+    /** Return an executor running each task on a new virtual thread, if
+     *  the runtime has them, and otherwise on a pooled thread with a
+     *  small stack. */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method virtual =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread =
+                    new Thread(null, task, "enigma-session", SESSION_STACK);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Size of each session's input, conversion, and output buffers. */
+    private static final int SESSION_BUFFER = 512;
+
+    /** Stack size of session threads that are not virtual. */
+    private static final long SESSION_STACK = 1 << 18;
+
+    /** Maximum number of connections waiting to be accepted. */
+    private static final int BACKLOG = 4096;
+
+    /** Machine forked for each session. */
+    private final Machine _machine;
+
+    /** Socket accepting connections. */
+    private final ServerSocket _socket;
+
+    /** Runs sessions. */
+    private final ExecutorService _sessions;
+
+    /** Thread accepting connections. */
+    private final Thread _acceptor;
+
+    /** Number of sessions begun. */
+    private final LongAdder _sessionCount = new LongAdder();
+
+    /** Number of sessions in progress. */
+    private final AtomicInteger _active = new AtomicInteger();
+
+    /** Number of characters read. */
+    private final LongAdder _characters = new LongAdder();
+
+    /** Number of message lines converted. */
+    private final LongAdder _lines = new LongAdder();
+
+}
@@ -0,0 +1,84 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Server class.
+ *  @author Matthew Jihoon Lee
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Number of simultaneous clients. */
+    private static final int CLIENTS = 200;
+
+    /** Send REQUEST to the server on PORT, and return its complete
+     *  reply. */
+    private String exchange(int port, String request) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes());
+            out.flush();
+            socket.shutdownOutput();
+            InputStream in = socket.getInputStream();
+            return new String(in.readAllBytes());
+        }
+    }
+
+    /** The line separator used in output. */
+    private static final String NL = System.lineSeparator();
+
+    @Test
+    public void testConcurrentSessions() throws Exception {
+        try (Server server = new Server(navalMachine(), 0)) {
+            ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+            List<Future<String>> replies = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i += 1) {
+                String setting = i % 2 == 0 ? "AXLE" : "BXLE";
+                replies.add(clients.submit(() -> exchange(
+                    server.port(),
+                    "* B Beta III IV I " + setting + " (HQ) (EX) (IP) (TR) "
+                    + "(BY)\nFROM HIS shoulder Hiawatha\n\nHELLO")));
+            }
+            for (int i = 0; i < CLIENTS; i += 1) {
+                String reply = replies.get(i).get();
+                if (i % 2 == 0) {
+                    assertTrue(reply.startsWith("QVPQS OKOIL PUBKJ ZPISF XDW"
+                                                + NL + NL));
+                }
+                assertEquals(3, reply.split(NL, -1).length - 1);
+            }
+            clients.shutdown();
+            assertEquals(CLIENTS, server.sessions());
+            assertEquals(3 * CLIENTS, server.lines());
+        }
+    }
+
+    @Test
+    public void testSessionError() throws IOException {
+        try (Server server = new Server(navalMachine(), 0)) {
+            assertEquals("Error: setting is incorrect" + NL,
+                         exchange(server.port(), "HELLO\n"));
+        }
+    }
+
+}
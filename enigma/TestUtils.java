@@ -1,6 +1,8 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 /** Utility definitions for use in unit tests.
  *  @author P. N. Hilfinger
@@ -18,6 +20,66 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** Return a new machine with five rotor slots, three pawls, and the
+     *  naval rotors B, Beta, III, IV, and I. */
+    static Machine navalMachine() {
+        ArrayList<Rotor> allRotors = new ArrayList<>();
+        allRotors.add(new Reflector("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        allRotors.add(new FixedRotor("Beta",
+                new Permutation(NAVALA.get("Beta"), UPPER)));
+        allRotors.add(new MovingRotor("III",
+                new Permutation(NAVALA.get("III"), UPPER), "V"));
+        allRotors.add(new MovingRotor("IV",
+                new Permutation(NAVALA.get("IV"), UPPER), "J"));
+        allRotors.add(new MovingRotor("I",
+                new Permutation(NAVALA.get("I"), UPPER), "Q"));
+        return new Machine(UPPER, 5, 3, allRotors);
+    }
+
+    /** Return a new machine with four rotor slots, three pawls, and the
+     *  naval rotors B, C, I, II, III, and IV. */
+    static Machine fourSlotMachine() {
+        ArrayList<Rotor> allRotors = new ArrayList<>();
+        allRotors.add(new Reflector("B",
+                new Permutation(NAVALA.get("B"), UPPER)));
+        allRotors.add(new Reflector("C",
+                new Permutation(NAVALA.get("C"), UPPER)));
+        String[] names = {"I", "II", "III", "IV"};
+        String[] notches = {"Q", "E", "V", "J"};
+        for (int i = 0; i < names.length; i += 1) {
+            allRotors.add(new MovingRotor(names[i],
+                new Permutation(NAVALA.get(names[i]), UPPER), notches[i]));
+        }
+        return new Machine(UPPER, 4, 3, allRotors);
+    }
+
+    /** Return a new machine with five rotor slots, three pawls, and
+     *  navalRotors(). */
+    static Machine fullNavalMachine() {
+        return new Machine(UPPER, 5, 3, navalRotors());
+    }
+
+    /** Return the naval rotors I-VIII, Beta, Gamma, B, and C. */
+    static List<Rotor> navalRotors() {
+        String[] notches = {"Q", "E", "V", "J", "Z", "ZM", "ZM", "ZM"};
+        String[] names = {"I", "II", "III", "IV", "V", "VI", "VII", "VIII"};
+        ArrayList<Rotor> result = new ArrayList<>();
+        for (int i = 0; i < names.length; i += 1) {
+            result.add(new MovingRotor(names[i],
+                new Permutation(NAVALA.get(names[i]), UPPER), notches[i]));
+        }
+        for (String name : new String[] {"Beta", "Gamma"}) {
+            result.add(new FixedRotor(name,
+                new Permutation(NAVALA.get(name), UPPER)));
+        }
+        for (String name : new String[] {"B", "C"}) {
+            result.add(new Reflector(name,
+                new Permutation(NAVALA.get(name), UPPER)));
+        }
+        return result;
+    }
+
     /** The naval rotors in the A (0) setting. */
     static final HashMap<String, String> NAVALA = new HashMap<>();
     static {
@@ -0,0 +1,220 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Converts input in the format read by Main: settings lines, whose first
+ *  non-blank character is '*', each followed by any number of message
+ *  lines.  Input is consumed in arbitrary pieces and message characters
+ *  are converted in fixed-size batches, so memory use does not depend on
+ *  the length of a message line.
+ *  @author Matthew Jihoon Lee
+ */
+class Transcriber {
+
+    /** A Transcriber that converts message lines with MACHINE, writing
+     *  them to OUTPUT, and passes each settings line, without leading or
+     *  trailing whitespace, to SETTINGS. */
+    Transcriber(Machine machine, Consumer<String> settings,
+                GroupWriter output) {
+        this(machine, settings, output, false);
+    }
+
+    /** As for Transcriber(MACHINE, SETTINGS, OUTPUT), but if PARALLEL,
+     *  collecting message characters into larger batches that are
+     *  converted with Machine.convertParallel. */
+    Transcriber(Machine machine, Consumer<String> settings,
+                GroupWriter output, boolean parallel) {
+        this(machine, settings, output, parallel,
+             parallel ? PARALLEL_BATCH : BUFFER_SIZE);
+    }
+
+    /** As for Transcriber(MACHINE, SETTINGS, OUTPUT), but converting
+     *  message characters in batches of BATCH. */
+    Transcriber(Machine machine, Consumer<String> settings,
+                GroupWriter output, int batch) {
+        this(machine, settings, output, false, batch);
+    }
+
+    /** As for Transcriber(MACHINE, SETTINGS, OUTPUT), but converting
+     *  message characters in batches of BATCH, with
+     *  Machine.convertParallel iff PARALLEL. */
+    private Transcriber(Machine machine, Consumer<String> settings,
+                        GroupWriter output, boolean parallel, int batch) {
+        _machine = machine;
+        _settings = settings;
+        _output = output;
+        _parallel = parallel;
+        _pending = new char[batch];
+        _converted = parallel ? new char[batch] : _pending;
+    }
+
+    /** Convert all of INPUT, then finish(). */
+    void transcribe(Reader input) throws IOException {
+        char[] buf = new char[BUFFER_SIZE];
+        for (int n = input.read(buf); n >= 0; n = input.read(buf)) {
+            feed(buf, 0, n);
+        }
+        finish();
+    }
+
+    /** Convert the LEN characters BUF[OFF .. OFF+LEN-1], which continue
+     *  the input seen so far. */
+    void feed(char[] buf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i += 1) {
+            char ch = buf[i];
+            if (_afterReturn) {
+                _afterReturn = false;
+                if (ch == '\n') {
+                    continue;
+                }
+            }
+            if (isLineEnd(ch)) {
+                endLine();
+                _afterReturn = ch == '\r';
+                continue;
+            }
+            _lineOpen = true;
+            switch (_state) {
+            case LINE_START:
+                if (Character.isWhitespace(ch)) {
+                    break;
+                } else if (ch == '*') {
+                    _state = SETTINGS;
+                    _line.setLength(0);
+                    _line.append(ch);
+                } else if (_firstLine) {
+                    throw error("setting is incorrect");
+                } else {
+                    _state = MESSAGE;
+                    add(ch);
+                }
+                break;
+            case SETTINGS:
+                _line.append(ch);
+                break;
+            default:
+                if (!Character.isWhitespace(ch)) {
+                    add(ch);
+                }
+                break;
+            }
+        }
+    }
+
+    /** Finish the last line of input, if it was not terminated, and flush
+     *  all output. */
+    void finish() throws IOException {
+        if (_lineOpen) {
+            endLine();
+        }
+        _output.flush();
+    }
+
+    /** Return true iff CH terminates a line. */
+    private static boolean isLineEnd(char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u0085'
+            || ch == '\u2028' || ch == '\u2029';
+    }
+
+    /** Append message character CH to the current batch. */
+    private void add(char ch) throws IOException {
+        if (_count == _pending.length) {
+            convertPending();
+        }
+        _pending[_count] = ch;
+        _count += 1;
+    }
+
+    /** Convert the current batch of message characters and write it. */
+    private void convertPending() throws IOException {
+        int n;
+        try {
+            if (_parallel) {
+                n = _machine.convertParallel(_pending, 0, _converted, 0,
+                                             _count);
+            } else {
+                n = _machine.convert(_pending, 0, _pending, 0, _count);
+            }
+        } catch (EnigmaException excp) {
+            throw error("message could not be converted: %s",
+                        excp.getMessage());
+        }
+        _output.write(_converted, 0, n);
+        _count = 0;
+    }
+
+    /** Complete the current line. */
+    private void endLine() throws IOException {
+        if (_state == SETTINGS) {
+            _settings.accept(_line.toString().trim());
+        } else if (_firstLine) {
+            throw error("setting is incorrect");
+        } else {
+            convertPending();
+            _output.endLine();
+        }
+        _state = LINE_START;
+        _firstLine = false;
+        _lineOpen = false;
+    }
+
+    /** Number of characters read or converted at a time. */
+    static final int BUFFER_SIZE = 8192;
+
+    /** Number of message characters converted at a time in parallel
+     *  mode. */
+    static final int PARALLEL_BATCH = 1 << 22;
+
+    /** State at the start of a line, before its first non-blank
+     *  character. */
+    private static final int LINE_START = 0;
+
+    /** State within a settings line. */
+    private static final int SETTINGS = 1;
+
+    /** State within a message line. */
+    private static final int MESSAGE = 2;
+
+    /** Machine converting my messages. */
+    private final Machine _machine;
+
+    /** Receiver of settings lines. */
+    private final Consumer<String> _settings;
+
+    /** Destination of converted messages. */
+    private final GroupWriter _output;
+
+    /** The current settings line. */
+    private final StringBuilder _line = new StringBuilder();
+
+    /** True iff batches are converted in parallel. */
+    private final boolean _parallel;
+
+    /** Message characters awaiting conversion. */
+    private final char[] _pending;
+
+    /** Destination of converted batches: _pending itself unless
+     *  converting in parallel. */
+    private final char[] _converted;
+
+    /** Number of characters in _pending. */
+    private int _count;
+
+    /** One of LINE_START, SETTINGS, or MESSAGE. */
+    private int _state = LINE_START;
+
+    /** True until the first line has been completed. */
+    private boolean _firstLine = true;
+
+    /** True iff the current line has any characters. */
+    private boolean _lineOpen;
+
+    /** True iff the last character seen was a carriage return, so that
+     *  an immediately following newline belongs to the same line end. */
+    private boolean _afterReturn;
+
+}
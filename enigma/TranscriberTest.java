@@ -0,0 +1,100 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Transcriber class.
+ *  @author Matthew Jihoon Lee
+ */
+public class TranscriberTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the output of transcribing INPUT with the machine
+     *  B BETA III IV I, whose settings come from the settings lines. */
+    private String transcribe(String input) throws IOException {
+        return transcribe(input, false);
+    }
+
+    /** Return the output of transcribing INPUT with the machine
+     *  B BETA III IV I, whose settings come from the settings lines,
+     *  through a Pipeline iff PIPELINED. */
+    private String transcribe(String input, boolean pipelined)
+        throws IOException {
+        Machine machine = navalMachine();
+        machine.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        StringWriter out = new StringWriter();
+        StringReader in = new StringReader(input);
+        Pipeline pipeline = pipelined ? new Pipeline(in, out) : null;
+        GroupWriter output = new GroupWriter(pipelined ? pipeline.sink() : out);
+        Transcriber transcriber =
+            new Transcriber(machine, s -> machine.setRotors(s.substring(2)),
+                            output);
+        if (pipelined) {
+            pipeline.transcribe(transcriber);
+            pipeline.close();
+        } else {
+            transcriber.transcribe(in);
+        }
+        return out.toString();
+    }
+
+    /** The line separator used in output. */
+    private static final String NL = System.lineSeparator();
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testGrouping() throws IOException {
+        assertEquals("HYIHL BKOML IUYDC MPPSF SZW" + NL + NL
+                     + "FROMH ISSHO ULDER HIAWA THA" + NL,
+                     transcribe("  * AXLE\nFROM HIS shoulder\tHiawatha\n"
+                                + "   \n* AXLE\r\nHYIHL BKOML IUYDCMPPSFSZW"));
+    }
+
+    @Test
+    public void testLongLine() throws IOException {
+        StringBuilder msg = new StringBuilder("* AXLE\n");
+        for (int i = 0; i < 3 * Transcriber.BUFFER_SIZE; i += 1) {
+            msg.append("FROM HIS shoulder Hiawatha ".charAt(i % 27));
+        }
+        String once = transcribe(msg.toString());
+        String[] lines = once.split(NL);
+        assertEquals(1, lines.length);
+        for (String group : lines[0].split(" ")) {
+            assertTrue(group.length() <= GroupWriter.GROUP_SIZE);
+        }
+        assertTrue(once.startsWith("HYIHL BKOML IUYDC MPPSF SZW"));
+    }
+
+    @Test
+    public void testPipelined() throws IOException {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 3 * Pipeline.CHUNK_SIZE; i += 1) {
+            if (i % 1000 == 0) {
+                msg.append(i % 3000 == 0 ? "\n* AXLE\n" : "\n");
+            }
+            msg.append("FROM HIS shoulder Hiawatha ".charAt(i % 27));
+        }
+        assertEquals(transcribe(msg.substring(1), false),
+                     transcribe(msg.substring(1), true));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testMissingSettings() throws IOException {
+        transcribe("HELLO\n* AXLE\n");
+    }
+
+}
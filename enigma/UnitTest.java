@@ -10,8 +10,15 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        textui.runClasses(PermutationTest.class, MovingRotorTest.class,
-                MachineTest.class);
+        textui.runClasses(AlphabetTest.class, PermutationTest.class,
+                MovingRotorTest.class,
+                MachineTest.class, TranscriberTest.class,
+                MappedFilesTest.class, DecryptingChannelTest.class,
+                ServerTest.class, ConfigTest.class,
+                ParallelTranscriberTest.class, BatchTest.class,
+                LanesTest.class, KeyTrialsTest.class,
+                BombeTest.class, CribDraggerTest.class,
+                IocSearchTest.class);
     }
 
 }